@@ -0,0 +1,47 @@
+package antlr4ls;
+
+import java.util.Random;
+
+/**
+ * Generates combined grammars of a given size for the benchmarks.
+ *
+ * Rule {@code rN} references {@code r(2N+1)} and {@code r(2N+2)} in its first
+ * two alternatives so every rule but {@code r0} is used, the other
+ * alternatives pick tokens and later rules at random. References only go to
+ * later rules, so there is no left recursion and the grammar is free of
+ * semantic errors at any size. The output only depends on the arguments.
+ */
+public final class GrammarGenerator {
+
+    private GrammarGenerator() {
+    }
+
+    public static String generate(int rules, int alternatives, long seed) {
+        Random random = new Random(seed);
+        int tokens = Math.max(5, rules / 10);
+        StringBuilder sb = new StringBuilder();
+        sb.append("grammar Generated;\n\n");
+        sb.append("start\n    : r0 EOF\n    ;\n");
+        for (int rule = 0; rule < rules; rule++) {
+            sb.append("\nr").append(rule).append('\n');
+            for (int alt = 0; alt < alternatives; alt++) {
+                sb.append(alt == 0 ? "    :" : "    |");
+                sb.append(" T").append(random.nextInt(tokens));
+                int child = 2 * rule + 1 + alt;
+                if (alt < 2 && child < rules) {
+                    sb.append(" r").append(child);
+                } else if (rule + 1 < rules && random.nextBoolean()) {
+                    sb.append(" r").append(rule + 1 + random.nextInt(rules - rule - 1));
+                }
+                sb.append(" T").append(random.nextInt(tokens)).append('\n');
+            }
+            sb.append("    ;\n");
+        }
+        sb.append('\n');
+        for (int token = 0; token < tokens; token++) {
+            sb.append('T').append(token).append(": 't").append(token).append("';\n");
+        }
+        sb.append("WS: [ \\t\\r\\n]+ -> skip;\n");
+        return sb.toString();
+    }
+}
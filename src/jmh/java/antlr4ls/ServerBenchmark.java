@@ -0,0 +1,176 @@
+package antlr4ls;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.lsp4j.CompletionParams;
+import org.eclipse.lsp4j.DefinitionParams;
+import org.eclipse.lsp4j.HoverParams;
+import org.eclipse.lsp4j.MessageActionItem;
+import org.eclipse.lsp4j.MessageParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.ReferenceContext;
+import org.eclipse.lsp4j.ReferenceParams;
+import org.eclipse.lsp4j.ShowMessageRequestParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import org.eclipse.lsp4j.services.LanguageClient;
+import org.eclipse.lsp4j.services.TextDocumentService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the request handlers on a generated grammar.
+ *
+ * The grammar is generated with a fixed seed, so results of the same
+ * parameters are comparable across commits. Lint runs synchronously on the
+ * benchmark thread; the navigation requests run against an already parsed
+ * document, like they do while editing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int rules;
+
+    @Param({"2", "4", "16", "64"})
+    int alternatives;
+
+    private Path folder;
+    private String uri;
+    private String text;
+    private Antlr4Server server;
+    private TextDocumentService textDocumentService;
+    private TextDocumentIdentifier document;
+    private Position reference;
+    private int version;
+    private boolean edited;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        text = GrammarGenerator.generate(rules, alternatives, 42);
+        folder = Files.createTempDirectory("antlr4ls-bench");
+        Path file = folder.resolve("Generated.g4");
+        Files.writeString(file, text);
+        uri = file.toUri().toString();
+        document = new TextDocumentIdentifier(uri);
+
+        server = new Antlr4Server();
+        server.connect(new NoopClient());
+        textDocumentService = server.getTextDocumentService();
+        server.documents().open(uri, ++version, text);
+        server.documents().parse(uri);
+
+        // a use of the rule in the middle of the grammar
+        int middle = Math.max(1, rules / 2);
+        Rope rope = Rope.of(text);
+        int offset = text.indexOf(" r" + middle + " ") + 1;
+        int line = rope.lineOf(offset);
+        reference = new Position(line, offset - rope.lineStart(line));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.shutdown();
+        Files.deleteIfExists(folder.resolve("Generated.g4"));
+        Files.deleteIfExists(folder);
+    }
+
+    @Benchmark
+    public void lint() {
+        // a fresh document, nothing cached from the previous invocation
+        server.documents().open(uri, ++version, text);
+        server.lintFile(uri);
+    }
+
+    @Benchmark
+    public void editThenRelint() {
+        Range range = edited
+            ? new Range(reference, new Position(reference.getLine(), reference.getCharacter() + 1))
+            : new Range(reference, reference);
+        var change = new TextDocumentContentChangeEvent(range, edited ? "" : " ");
+        edited = !edited;
+        server.documents().change(uri, ++version, List.of(change));
+        server.lintFile(uri);
+    }
+
+    @Benchmark
+    public Object hover() {
+        return textDocumentService.hover(new HoverParams(document, reference)).join();
+    }
+
+    @Benchmark
+    public Object definition() {
+        return textDocumentService.definition(new DefinitionParams(document, reference)).join();
+    }
+
+    @Benchmark
+    public Object references() {
+        var params = new ReferenceParams(document, reference, new ReferenceContext(true));
+        return textDocumentService.references(params).join();
+    }
+
+    @Benchmark
+    public Object completion() {
+        // after the first two characters of the rule name
+        var position = new Position(reference.getLine(), reference.getCharacter() + 2);
+        return textDocumentService.completion(new CompletionParams(document, position)).join();
+    }
+
+    @Benchmark
+    public Object workspaceSymbol() {
+        return server.getWorkspaceService().symbol(new WorkspaceSymbolParams("r12")).join();
+    }
+
+    @Benchmark
+    public Object workspaceSymbolWithoutMatch() {
+        // no trigram hits, every name is scanned for an abbreviation
+        return server.getWorkspaceService().symbol(new WorkspaceSymbolParams("zzz")).join();
+    }
+
+    private static class NoopClient implements LanguageClient {
+
+        @Override
+        public void telemetryEvent(Object object) {
+        }
+
+        @Override
+        public void publishDiagnostics(PublishDiagnosticsParams diagnostics) {
+        }
+
+        @Override
+        public void showMessage(MessageParams messageParams) {
+        }
+
+        @Override
+        public CompletableFuture<MessageActionItem> showMessageRequest(ShowMessageRequestParams requestParams) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void logMessage(MessageParams message) {
+        }
+    }
+}
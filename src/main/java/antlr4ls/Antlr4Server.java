@@ -1,46 +1,114 @@
 
 package antlr4ls;
 
-import java.net.URI;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import org.antlr.runtime.tree.Tree;
-import org.antlr.v4.Tool;
-import org.antlr.v4.parse.GrammarTreeVisitor;
-import org.antlr.v4.tool.ANTLRMessage;
-import org.antlr.v4.tool.ANTLRToolListener;
 import org.antlr.v4.tool.Grammar;
-import org.antlr.v4.tool.ast.GrammarAST;
-import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.antlr.v4.tool.LexerGrammar;
 import org.antlr.v4.tool.ast.RuleAST;
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.CompletionItem;
+import org.eclipse.lsp4j.CompletionList;
+import org.eclipse.lsp4j.CompletionOptions;
+import org.eclipse.lsp4j.CompletionParams;
 import org.eclipse.lsp4j.DefinitionParams;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticSeverity;
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidChangeWatchedFilesCapabilities;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.DidChangeWatchedFilesRegistrationOptions;
 import org.eclipse.lsp4j.DidCloseTextDocumentParams;
 import org.eclipse.lsp4j.DidOpenTextDocumentParams;
 import org.eclipse.lsp4j.DidSaveTextDocumentParams;
+import org.eclipse.lsp4j.DocumentSymbol;
+import org.eclipse.lsp4j.DocumentSymbolParams;
+import org.eclipse.lsp4j.FileChangeType;
+import org.eclipse.lsp4j.FileEvent;
+import org.eclipse.lsp4j.FileSystemWatcher;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.HoverParams;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
+import org.eclipse.lsp4j.InitializedParams;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.LocationLink;
 import org.eclipse.lsp4j.MarkupContent;
 import org.eclipse.lsp4j.MarkupKind;
+import org.eclipse.lsp4j.MessageParams;
+import org.eclipse.lsp4j.MessageType;
 import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.PrepareRenameDefaultBehavior;
+import org.eclipse.lsp4j.PrepareRenameParams;
+import org.eclipse.lsp4j.PrepareRenameResult;
+import org.eclipse.lsp4j.ProgressParams;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.ReferenceParams;
+import org.eclipse.lsp4j.Registration;
+import org.eclipse.lsp4j.RegistrationParams;
+import org.eclipse.lsp4j.RenameOptions;
+import org.eclipse.lsp4j.RenameParams;
+import org.eclipse.lsp4j.SaveOptions;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensDeltaParams;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.SemanticTokensParams;
+import org.eclipse.lsp4j.SemanticTokensRangeParams;
+import org.eclipse.lsp4j.SemanticTokensServerFull;
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.ServerInfo;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.TextDocumentSyncKind;
+import org.eclipse.lsp4j.TextDocumentSyncOptions;
+import org.eclipse.lsp4j.TextEdit;
+import org.eclipse.lsp4j.WindowClientCapabilities;
+import org.eclipse.lsp4j.WorkDoneProgressBegin;
+import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
+import org.eclipse.lsp4j.WorkDoneProgressEnd;
+import org.eclipse.lsp4j.WorkDoneProgressNotification;
+import org.eclipse.lsp4j.WorkDoneProgressReport;
+import org.eclipse.lsp4j.WorkspaceClientCapabilities;
+import org.eclipse.lsp4j.WorkspaceEdit;
+import org.eclipse.lsp4j.WorkspaceFolder;
+import org.eclipse.lsp4j.WorkspaceSymbol;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.Either3;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.LanguageServer;
@@ -49,54 +117,333 @@ import org.eclipse.lsp4j.services.WorkspaceService;
 
 public class Antlr4Server implements LanguageServer, LanguageClientAware {
 
+    private static final int PROFILED_DECISIONS = 10;
+    private static final int MAX_WORKSPACE_SYMBOLS = 200;
+    private static final Set<String> RESERVED_NAMES = Set.of(
+        "EOF", "import", "fragment", "lexer", "parser", "grammar", "returns", "locals", "throws",
+        "catch", "finally", "mode", "options", "tokens", "channels");
+
+    private record Profile(Document document, List<Diagnostic> diagnostics) {
+    }
+
+    private record SymbolAt(SymbolTable.Kind kind, String name, Range range) {
+    }
+
+    private record EncodedTokens(Document document, String resultId, int[] data) {
+    }
+
     private LanguageClient client;
 
-    private static Diagnostic newDiagnostic(ANTLRMessage msg, DiagnosticSeverity severity) {
-        int lnum = msg.line - 1;
-        Position start = new Position(lnum, msg.charPosition);
-        Position end;
-        Object[] args = msg.getArgs();
-        if (args.length > 0) {
-            String text = args[0].toString();
-            end = new Position(lnum, msg.charPosition + text.length());
+    private final WorkspaceIndex workspace = new WorkspaceIndex(this::indexRead);
+    private final Documents documents = new Documents(this::indexParsed);
+    private final GrammarProfiler profiler = new GrammarProfiler();
+    private final ConcurrentHashMap<String, Profile> profiles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EncodedTokens> semanticTokens = new ConcurrentHashMap<>();
+    private final AtomicLong semanticTokensResultId = new AtomicLong();
+    private volatile Settings settings = new Settings();
+    private volatile CompletableFuture<Void> workspaceIndexed = CompletableFuture.completedFuture(null);
+    private volatile CompletableFuture<Integer> workspaceLinted = CompletableFuture.completedFuture(0);
+    private volatile WorkspaceLint workspaceLint;
+    // key of the file content and its dependencies at the last workspace lint
+    private final ConcurrentHashMap<Path, Long> lintKeys = new ConcurrentHashMap<>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong progressTokens = new AtomicLong();
+    private final Metrics metrics = new Metrics();
+    private volatile IndexCache indexCache;
+    private boolean watchFilesDynamically;
+    private boolean workDoneProgress;
+    private ExecutorService background;
+    private ExecutorService requests;
+    private LintScheduler lintScheduler;
+    private ScheduledExecutorService telemetry;
+    private ScheduledFuture<?> telemetryTask;
+
+    public Documents documents() {
+        return documents;
+    }
+
+    public WorkspaceIndex workspace() {
+        return workspace;
+    }
+
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    public CompletableFuture<Void> workspaceIndexed() {
+        return workspaceIndexed;
+    }
+
+    /**
+     * The latest background lint of the workspace, completes with the number
+     * of files it linted.
+     */
+    public CompletableFuture<Integer> workspaceLinted() {
+        return workspaceLinted;
+    }
+
+    private synchronized ExecutorService background() {
+        if (background == null) {
+            background = Executors.newFixedThreadPool(
+                Math.max(1, settings.lintThreads()),
+                LintScheduler.daemonThreads("antlr4ls-worker"));
+        }
+        return background;
+    }
+
+    /**
+     * Applies a changed lintThreads to the pool if it exists already.
+     */
+    private synchronized void resizeBackground() {
+        if (!(background instanceof ThreadPoolExecutor pool)) {
+            return;
+        }
+        int threads = Math.max(1, settings.lintThreads());
+        // the core size may never exceed the maximum
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
         } else {
-            end = start;
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
         }
-        Range range = new Range(start, end);
-        String message = msg.getMessageTemplate(true).render();
-        return new Diagnostic(range, message, severity, "antlr4");
     }
 
-    private void lintFile(String uri) {
-        // trigger in didChange with debounce, asyncCompute?
-        ArrayList<Diagnostic> diagnostics = new ArrayList<>();
-        String path = Paths.get(URI.create(uri)).toString();
-        Tool antlr = new Tool();
-        antlr.addListener(new ANTLRToolListener() {
+    /**
+     * Runs hover, definition and references. Separate from the lint workers
+     * so that requests don't queue behind a slow lint.
+     */
+    private synchronized ExecutorService requests() {
+        if (requests == null) {
+            requests = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                LintScheduler.daemonThreads("antlr4ls-request"));
+        }
+        return requests;
+    }
 
-            @Override
-            public void info(String msg) {
-            }
+    private synchronized LintScheduler lintScheduler() {
+        if (lintScheduler == null) {
+            lintScheduler = new LintScheduler(background());
+        }
+        return lintScheduler;
+    }
 
-            @Override
-            public void error(ANTLRMessage msg) {
-                diagnostics.add(newDiagnostic(msg, DiagnosticSeverity.Error));
-            }
+    private void indexParsed(Document document, ParsedGrammar parsed) {
+        Path file = document.file();
+        // closed documents are read from disk, the index has those already
+        if (file != null && document.isOpen()) {
+            workspace.put(WorkspaceIndex.entry(file, parsed, null));
+        }
+    }
 
-            @Override
-            public void warning(ANTLRMessage msg) {
-                diagnostics.add(newDiagnostic(msg, DiagnosticSeverity.Warning));
+    private void indexRead(Path file, Rope text) {
+        // the workspace lint parses the file next, it needn't read it again
+        if (settings.lintWorkspace()) {
+            documents.cache(file.toUri().toString(), text);
+        }
+    }
+
+    private void scheduleLint(String uri, long delayMillis) {
+        if (client == null) {
+            return;
+        }
+        lintScheduler().schedule(uri, delayMillis, () -> lintFile(uri));
+    }
+
+    void lintFile(String uri) {
+        Document document = documents.get(uri);
+        if (!documents.isCurrent(document)) {
+            return;
+        }
+        int size = document.text() == null ? 0 : document.text().length();
+        Events.Lint syntax = lintEvent(document, "syntax", size);
+        long start = System.nanoTime();
+        ParsedGrammar parsed = documents.parse(document);
+        long syntaxNanos = System.nanoTime() - start;
+        syntax.commit();
+        metrics.record("lint/syntax", syntaxNanos);
+        publishDiagnostics(document, parsed.diagnostics());
+
+        if (size > settings.semanticLintMaxSize()) {
+            logMessage(String.format(
+                "lint %s v%d: syntax %.1f ms, semantic skipped (%d > semanticLintMaxSize %d)",
+                uri, document.version(), syntaxNanos / 1e6, size, settings.semanticLintMaxSize()));
+            return;
+        }
+        if (!documents.isCurrent(document)) {
+            return;
+        }
+        Events.Lint semantic = lintEvent(document, "semantic", size);
+        start = System.nanoTime();
+        ProcessedGrammar processed = documents.process(document);
+        long semanticNanos = System.nanoTime() - start;
+        semantic.commit();
+        metrics.record("lint/semantic", semanticNanos);
+        if (!processed.diagnostics().equals(parsed.diagnostics())) {
+            publishDiagnostics(document, processed.diagnostics());
+        }
+        logMessage(String.format(
+            "lint %s v%d: syntax %.1f ms, semantic %.1f ms",
+            uri, document.version(), syntaxNanos / 1e6, semanticNanos / 1e6));
+    }
+
+    private static Events.Lint lintEvent(Document document, String phase, int size) {
+        Events.Lint event = new Events.Lint();
+        event.begin();
+        event.uri = document.uri();
+        event.version = document.version();
+        event.phase = phase;
+        event.characters = size;
+        return event;
+    }
+
+    /**
+     * Lints all indexed grammars in the background, see
+     * {@link #lintWorkspace(Collection)}.
+     */
+    CompletableFuture<Integer> lintWorkspace() {
+        return lintWorkspace(workspace.entries().stream().map(WorkspaceIndex.Entry::path).toList());
+    }
+
+    /**
+     * Lints the given grammars in the background: open documents first, then
+     * the most recently modified files. Files whose content and dependencies
+     * are unchanged since their last workspace lint are skipped. A run still
+     * in progress is cancelled and the files it didn't get to are added.
+     */
+    CompletableFuture<Integer> lintWorkspace(Collection<Path> files) {
+        LinkedHashSet<Path> pending = new LinkedHashSet<>(files);
+        WorkspaceLint previous = workspaceLint;
+        if (previous != null) {
+            previous.cancel();
+            pending.addAll(previous.remaining());
+        }
+        ArrayList<WorkspaceIndex.Entry> entries = new ArrayList<>();
+        for (Path file : pending) {
+            WorkspaceIndex.Entry entry = workspace.get(file);
+            if (entry == null) {
+                continue;
             }
+            Long key = lintKey(file);
+            if (key == null || !key.equals(lintKeys.get(file))) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator
+            .comparing((WorkspaceIndex.Entry entry) -> documents.getIfOpen(entry.uri()) == null)
+            .thenComparing(entry -> entry.stamp() == null ? Long.MAX_VALUE : entry.stamp().modified(), Comparator.reverseOrder())
+            .thenComparing(WorkspaceIndex.Entry::path));
+        List<Path> queued = entries.stream().map(WorkspaceIndex.Entry::path).toList();
+        CompletableFuture<Integer> linted = createProgress().thenCompose(token -> {
+            var begin = new WorkDoneProgressBegin();
+            begin.setTitle("Linting grammars");
+            begin.setPercentage(0);
+            notifyProgress(token, begin);
+            int[] percentage = {-1};
+            WorkspaceLint lint = new WorkspaceLint(
+                queued,
+                background(),
+                settings.lintThreads(),
+                () -> activeRequests.get() > 0 || lintScheduler().pendingCount() > 0,
+                this::lintWorkspaceFile,
+                (done, total) -> {
+                    synchronized (percentage) {
+                        int current = 100 * done / total;
+                        if (current == percentage[0]) {
+                            return;
+                        }
+                        percentage[0] = current;
+                        var report = new WorkDoneProgressReport();
+                        report.setMessage(done + "/" + total);
+                        report.setPercentage(current);
+                        notifyProgress(token, report);
+                    }
+                });
+            workspaceLint = lint;
+            return lint.start().whenComplete((count, ex) -> {
+                var end = new WorkDoneProgressEnd();
+                end.setMessage(count == null ? null : count + " grammars linted");
+                notifyProgress(token, end);
+            });
         });
+        workspaceLinted = linted;
+        return linted;
+    }
+
+    private void lintWorkspaceFile(Path file) {
+        Long key = lintKey(file);
+        String uri = file.toUri().toString();
         try {
-            GrammarRootAST grammarAST = antlr.parseGrammar(path);
-            Grammar grammar = antlr.createGrammar(grammarAST);
-            grammar.fileName = path;
-            antlr.process(grammar, false);
-        } catch (Exception ex) {
+            lintFile(uri);
+        } catch (RuntimeException ex) {
+            logMessage(MessageType.Warning, "lint " + uri + " failed: " + ex);
+            return;
+        }
+        if (key != null) {
+            lintKeys.put(file, key);
+        }
+    }
+
+    /**
+     * Hash of the file and of the grammars it depends on, null if any of
+     * them comes from an editor buffer.
+     */
+    private Long lintKey(Path file) {
+        WorkspaceIndex.Entry entry = workspace.get(file);
+        if (entry == null || entry.stamp() == null) {
+            return null;
+        }
+        long key = entry.stamp().hash();
+        for (var dependency : workspace.dependencies(file)) {
+            if (dependency.stamp() == null) {
+                return null;
+            }
+            key = 31 * key + dependency.stamp().hash();
+        }
+        return key;
+    }
+
+    private CompletableFuture<String> createProgress() {
+        if (!workDoneProgress || client == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String token = "antlr4ls-lint-" + progressTokens.incrementAndGet();
+        return client.createProgress(new WorkDoneProgressCreateParams(Either.forLeft(token)))
+            .handle((result, ex) -> ex == null ? token : null);
+    }
+
+    private void notifyProgress(String token, WorkDoneProgressNotification progress) {
+        if (token != null && client != null) {
+            client.notifyProgress(new ProgressParams(Either.forLeft(token), Either.forLeft(progress)));
         }
-        var diagnosticsParams = new PublishDiagnosticsParams(uri, diagnostics);
-        client.publishDiagnostics(diagnosticsParams);
+    }
+
+    private void logMessage(String message) {
+        logMessage(MessageType.Log, message);
+    }
+
+    private void logMessage(MessageType type, String message) {
+        if (client != null) {
+            client.logMessage(new MessageParams(type, message));
+        }
+    }
+
+    private void publishDiagnostics(Document document, List<Diagnostic> diagnostics) {
+        // a newer version has been scheduled in the meantime, its run will publish
+        if (!documents.isCurrent(document)) {
+            return;
+        }
+        // decisions found by antlr4ls/profile stay until the document changes
+        Profile profile = profiles.get(document.uri());
+        if (profile != null && profile.document() == document) {
+            diagnostics = new ArrayList<>(diagnostics);
+            diagnostics.addAll(profile.diagnostics());
+        } else if (profile != null) {
+            profiles.remove(document.uri(), profile);
+        }
+        Integer version = document.isOpen() ? document.version() : null;
+        client.publishDiagnostics(new PublishDiagnosticsParams(document.uri(), diagnostics, version));
     }
 
     @Override
@@ -105,151 +452,708 @@ public class Antlr4Server implements LanguageServer, LanguageClientAware {
 
             @Override
             public void didChange(DidChangeTextDocumentParams params) {
+                var textDocument = params.getTextDocument();
+                long start = System.nanoTime();
+                documents.change(textDocument.getUri(), textDocument.getVersion(), params.getContentChanges());
+                metrics.record("textDocument/didChange", System.nanoTime() - start);
+                scheduleLint(textDocument.getUri(), settings.lintDebounceMillis());
             }
 
             @Override
             public void didClose(DidCloseTextDocumentParams params) {
+                String uri = params.getTextDocument().getUri();
+                documents.close(uri);
+                profiles.remove(uri);
+                semanticTokens.remove(uri);
+                lintScheduler().cancel(uri);
+                Path file = Document.toFile(uri);
+                if (file != null) {
+                    // the index holds the unsaved buffer, go back to what's on disk
+                    // unless the file has been opened again in the meantime
+                    background().execute(() -> {
+                        if (documents.getIfOpen(uri) == null) {
+                            workspace.refresh(file);
+                        }
+                    });
+                }
             }
 
             @Override
             public void didOpen(DidOpenTextDocumentParams params) {
-                if (client == null) {
-                    return;
-                }
-                lintFile(params.getTextDocument().getUri());
+                var textDocument = params.getTextDocument();
+                documents.open(textDocument.getUri(), textDocument.getVersion(), textDocument.getText());
+                scheduleLint(textDocument.getUri(), 0);
             }
 
             @Override
             public void didSave(DidSaveTextDocumentParams params) {
-                if (client == null) {
-                    return;
-                }
-                lintFile(params.getTextDocument().getUri());
+                String uri = params.getTextDocument().getUri();
+                documents.invalidate(uri);
+                scheduleLint(uri, 0);
             }
 
             @Override
             public CompletableFuture<Hover> hover(HoverParams params) {
-                // TODO: cache tool/grammar
-                var textDocument = params.getTextDocument();
                 var position = params.getPosition();
-                String path = Paths.get(URI.create(textDocument.getUri())).toString();
-                Tool antlr = new Tool();
-                GrammarRootAST rootAST = antlr.parseGrammar(path);
-                Tree tree = findNode(position, rootAST);
-                // TODO: anything more useful to show?
-                String text = tree == null
-                    ? ""
-                    : tree.toStringTree();
-                Hover hover = new Hover(new MarkupContent(MarkupKind.PLAINTEXT, text));
-                return CompletableFuture.completedFuture(hover);
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/hover", cancelChecker -> {
+                    Document document = document(uri, open);
+                    ParsedGrammar parsed = documents.parse(document);
+                    cancelChecker.checkCanceled();
+                    Tree tree = findNode(position, parsed);
+                    // TODO: anything more useful to show?
+                    String text = tree == null
+                        ? ""
+                        : tree.toStringTree();
+                    return new Hover(new MarkupContent(MarkupKind.PLAINTEXT, text));
+                });
             }
 
             @Override
-            public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> definition(DefinitionParams params) {
-                // TODO: cache tool/grammar
-                var textDocument = params.getTextDocument();
+            public CompletableFuture<Either<List<CompletionItem>, CompletionList>> completion(CompletionParams params) {
                 var position = params.getPosition();
-                String path = Paths.get(URI.create(textDocument.getUri())).toString();
-                Tool antlr = new Tool();
-                GrammarRootAST rootAST = antlr.parseGrammar(path);
-                Tree tree = findNode(position, rootAST);
-                ArrayList<Location> locations = new ArrayList<>();
-                if (tree == null) {
-                    return CompletableFuture.completedFuture(Either.forLeft(locations));
-                }
-                List<GrammarAST> candidates = rootAST.getNodesWithType(tree.getType());
-                for (var candidate : candidates) {
-                    Tree parent = candidate.getParent();
-                    if (parent instanceof RuleAST rule && rule.getRuleName().equals(tree.getText())) {
-                        int character = rule.getCharPositionInLine();
-                        int lnum = rule.getLine() - 1;
-                        Position start = new Position(lnum, character);
-                        Position end = new Position(lnum, character + tree.getText().length());
-                        Range range = new Range(start, end);
-                        locations.add(new Location(textDocument.getUri(), range));
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/completion", cancelChecker -> {
+                    Document document = document(uri, open);
+                    Rope text = document.text();
+                    if (text == null) {
+                        // not open and couldn't be read
+                        return Either.forRight(new CompletionList(List.of()));
                     }
-                }
-                return CompletableFuture.completedFuture(Either.forLeft(locations));
+                    int offset = text.offsetAt(position.getLine(), position.getCharacter());
+                    Completions.Context context = Completions.context(text, offset);
+                    return Either.forRight(Completions.complete(context, completionSources(document, cancelChecker)));
+                });
+            }
+
+            @Override
+            public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> definition(DefinitionParams params) {
+                var position = params.getPosition();
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/definition", cancelChecker -> {
+                    Document document = document(uri, open);
+                    ParsedGrammar parsed = documents.parse(document);
+                    cancelChecker.checkCanceled();
+                    return Either.forLeft(findDefinitions(document, parsed, position, cancelChecker));
+                });
             }
 
             @Override
             public CompletableFuture<List<? extends Location>> references(ReferenceParams params) {
-                // TODO: cache tool/grammar
-                var textDoc = params.getTextDocument();
                 var position = params.getPosition();
                 boolean includeDeclaration = params.getContext().isIncludeDeclaration();
-                String path = Paths.get(URI.create(textDoc.getUri())).toString();
-                Tool antlr = new Tool();
-                GrammarRootAST rootAST = antlr.parseGrammar(path);
-                Tree tree = findNode(position, rootAST);
-                if (tree instanceof RuleAST) {
-                    tree = tree.getChild(0);
-                }
-                if (tree == null) {
-                    return CompletableFuture.completedFuture(List.of());
-                }
-                String text = tree.getText();
-                List<GrammarAST> candidates = rootAST.getNodesWithType(tree.getType());
-                ArrayList<Location> locations = new ArrayList<>();
-                for (var candidate : candidates) {
-                    if (!candidate.getText().equals(text)) {
-                        continue;
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/references", cancelChecker -> {
+                    Document document = document(uri, open);
+                    ParsedGrammar parsed = documents.parse(document);
+                    cancelChecker.checkCanceled();
+                    return findReferences(document, parsed, position, includeDeclaration, cancelChecker);
+                });
+            }
+
+            @Override
+            public CompletableFuture<Either3<Range, PrepareRenameResult, PrepareRenameDefaultBehavior>> prepareRename(PrepareRenameParams params) {
+                var position = params.getPosition();
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/prepareRename", cancelChecker -> {
+                    Document document = document(uri, open);
+                    ParsedGrammar parsed = documents.parse(document);
+                    SymbolAt symbol = symbolAt(parsed, position);
+                    if (symbol == null) {
+                        return null;
                     }
-                    if (!includeDeclaration && candidate.getParent() instanceof RuleAST) {
-                        continue;
+                    boolean declared = isDeclared(parsed.symbols().lookup(symbol.kind(), symbol.name()))
+                        || findDeclaringFile(document, parsed, symbol, cancelChecker) != null;
+                    if (!declared) {
+                        return null;
                     }
-                    int character = candidate.getCharPositionInLine();
-                    int lnum = candidate.getLine() - 1;
-                    Position start = new Position(lnum, character);
-                    Position end = new Position(lnum, character + text.length());
-                    Range range = new Range(start, end);
-                    locations.add(new Location(textDoc.getUri(), range));
-                }
-                return CompletableFuture.completedFuture(locations);
+                    return Either3.forSecond(new PrepareRenameResult(symbol.range(), symbol.name()));
+                });
+            }
+
+            @Override
+            public CompletableFuture<WorkspaceEdit> rename(RenameParams params) {
+                var position = params.getPosition();
+                String newName = params.getNewName();
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/rename", cancelChecker -> {
+                    Document document = document(uri, open);
+                    ParsedGrammar parsed = documents.parse(document);
+                    cancelChecker.checkCanceled();
+                    return renameSymbol(document, parsed, position, newName, cancelChecker);
+                });
+            }
+
+            @Override
+            public CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> documentSymbol(DocumentSymbolParams params) {
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/documentSymbol", cancelChecker -> DocumentSymbols.of(documents.parse(document(uri, open))).stream()
+                    .map(Either::<SymbolInformation, DocumentSymbol>forRight)
+                    .toList());
+            }
+
+            @Override
+            public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/semanticTokens/full", cancelChecker -> {
+                    Document document = document(uri, open);
+                    EncodedTokens encoded = encodeSemanticTokens(document);
+                    return new SemanticTokens(encoded.resultId(), asList(encoded.data()));
+                });
+            }
+
+            @Override
+            public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(SemanticTokensDeltaParams params) {
+                String previousResultId = params.getPreviousResultId();
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                EncodedTokens previous = semanticTokens.get(uri);
+                return computeAsync("textDocument/semanticTokens/full/delta", cancelChecker -> {
+                    Document document = document(uri, open);
+                    EncodedTokens encoded = encodeSemanticTokens(document);
+                    if (previous == null || !previous.resultId().equals(previousResultId)) {
+                        return Either.forLeft(new SemanticTokens(encoded.resultId(), asList(encoded.data())));
+                    }
+                    var edit = SemanticTokensEncoder.diff(previous.data(), encoded.data());
+                    List<SemanticTokensEdit> edits = edit == null ? List.of() : List.of(edit);
+                    return Either.forRight(new SemanticTokensDelta(edits, encoded.resultId()));
+                });
+            }
+
+            @Override
+            public CompletableFuture<SemanticTokens> semanticTokensRange(SemanticTokensRangeParams params) {
+                Range range = params.getRange();
+                String uri = params.getTextDocument().getUri();
+                Document open = documents.getIfOpen(uri);
+                return computeAsync("textDocument/semanticTokens/range", cancelChecker -> {
+                    Document document = document(uri, open);
+                    int[] data = SemanticTokensEncoder.range(
+                        encodeSemanticTokens(document).data(),
+                        range.getStart().getLine(),
+                        range.getStart().getCharacter(),
+                        range.getEnd().getLine(),
+                        range.getEnd().getCharacter());
+                    return new SemanticTokens(asList(data));
+                });
             }
         };
     }
 
-    private static boolean isAtPosition(Tree tree, Position position) {
-        int line = position.getLine();
-        int character = position.getCharacter();
-        return tree.getLine() - 1 == line
-            && tree.getCharPositionInLine() <= character
-            && character <= tree.getCharPositionInLine() + tree.getText().length();
+    /**
+     * Encoded semantic tokens of the document, reused until the document
+     * changes. The last encoding per document is kept to compute deltas.
+     */
+    private EncodedTokens encodeSemanticTokens(Document document) {
+        EncodedTokens cached = semanticTokens.get(document.uri());
+        if (cached != null && cached.document() == document) {
+            return cached;
+        }
+        int[] data = SemanticTokensEncoder.encode(documents.parse(document));
+        String resultId = Long.toString(semanticTokensResultId.incrementAndGet());
+        EncodedTokens encoded = new EncodedTokens(document, resultId, data);
+        if (documents.isCurrent(document)) {
+            semanticTokens.put(document.uri(), encoded);
+        }
+        return encoded;
     }
 
-    protected Tree findNode(Position position, GrammarRootAST rootAST) {
-        AtomicReference<Tree> result = new AtomicReference<>();
-        GrammarTreeVisitor grammarTreeVisitor = new GrammarTreeVisitor() {
+    private static List<Integer> asList(int[] data) {
+        return SemanticTokensEncoder.asList(data, 0, data.length);
+    }
 
-            @Override
-            protected void enterRule(GrammarAST tree) {
-                if (isAtPosition(tree, position)) {
-                    result.set(tree);
+    /**
+     * Parses sample input with the interpreters of the grammar and reports
+     * the decisions that took longest to predict, both in the result and as
+     * diagnostics on the grammar.
+     */
+    @JsonRequest("antlr4ls/profile")
+    public CompletableFuture<GrammarProfiler.Result> profile(ProfileParams params) {
+        if (params.uri() == null) {
+            throw invalidParams("uri is required");
+        }
+        Document open = documents.getIfOpen(params.uri());
+        long timeoutMillis = params.timeoutMillis() == null ? settings.profileTimeoutMillis() : params.timeoutMillis();
+        return computeAsync("antlr4ls/profile", cancelChecker -> {
+            Document document = document(params.uri(), open);
+            ProcessedGrammar processed = documents.process(document);
+            Grammar grammar = processed.grammar();
+            if (grammar == null || grammar.isLexer()) {
+                throw invalidParams(document.uri() + " is not a parser or combined grammar");
+            }
+            ParsedGrammar parsed = documents.parse(document);
+            LexerGrammar lexer;
+            if (grammar.isCombined()) {
+                lexer = grammar.getImplicitLexer();
+                if (lexer == null) {
+                    throw invalidParams("No lexer rules in " + document.uri());
                 }
-                super.enterRule(tree);
+            } else {
+                lexer = findLexer(document, grammar);
+                grammar = profiler.withVocab(parsed, document.path(), lexer);
             }
+            if (grammar == null || grammar.atn == null || lexer.atn == null) {
+                throw invalidParams("Fix the errors in " + document.uri() + " before profiling it");
+            }
+            String input = readInput(params);
+            cancelChecker.checkCanceled();
+            GrammarProfiler.Result result;
+            try {
+                result = profiler.profile(
+                    grammar,
+                    lexer,
+                    parsed.symbols(),
+                    input,
+                    params.startRule(),
+                    timeoutMillis,
+                    PROFILED_DECISIONS,
+                    cancelChecker);
+            } catch (IllegalArgumentException ex) {
+                throw invalidParams(ex.getMessage());
+            }
+            List<Diagnostic> diagnostics = result.decisions().stream()
+                .map(decision -> new Diagnostic(
+                    decision.range(), decision.describe(), DiagnosticSeverity.Information, "antlr4ls profile"))
+                .toList();
+            profiles.put(document.uri(), new Profile(document, diagnostics));
+            publishDiagnostics(document, processed.diagnostics());
+            return result;
+        });
+    }
 
-            @Override
-            protected void enterElement(GrammarAST tree) {
-                if (isAtPosition(tree, position)) {
-                    result.set(tree);
+    /**
+     * Request latencies, cache hit rates and queue depths since the server
+     * started.
+     */
+    @JsonRequest("antlr4ls/stats")
+    public CompletableFuture<ServerStats> stats() {
+        // answered on the message thread so that it works while the request executor is saturated
+        return CompletableFuture.completedFuture(collectStats());
+    }
+
+    private ServerStats collectStats() {
+        Documents.Stats cache = documents.stats();
+        ServerStats.Queues queues;
+        synchronized (this) {
+            queues = new ServerStats.Queues(
+                activeRequests.get(),
+                queued(requests),
+                queued(background),
+                lintScheduler == null ? 0 : lintScheduler.pendingCount());
+        }
+        return new ServerStats(
+            metrics.latencies(),
+            cache,
+            hitRate(cache.parseHits(), cache.parseMisses()),
+            hitRate(cache.processHits(), cache.processMisses()),
+            queues);
+    }
+
+    private static int queued(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+    }
+
+    private static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * (Re)starts sending the stats as telemetry events at the configured
+     * interval.
+     */
+    private synchronized void scheduleTelemetry() {
+        if (telemetryTask != null) {
+            telemetryTask.cancel(false);
+            telemetryTask = null;
+        }
+        long interval = settings.telemetryIntervalSeconds();
+        if (interval <= 0 || client == null) {
+            return;
+        }
+        if (telemetry == null) {
+            telemetry = Executors.newSingleThreadScheduledExecutor(LintScheduler.daemonThreads("antlr4ls-telemetry"));
+        }
+        telemetryTask = telemetry.scheduleAtFixedRate(
+            () -> client.telemetryEvent(collectStats()), interval, interval, TimeUnit.SECONDS);
+    }
+
+    private LexerGrammar findLexer(Document document, Grammar grammar) {
+        String tokenVocab = grammar.getOptionString("tokenVocab");
+        Path file = document.file();
+        if (tokenVocab == null || file == null) {
+            throw invalidParams("No tokenVocab to lex the input of " + document.uri());
+        }
+        WorkspaceIndex.Entry entry = workspace.resolve(tokenVocab, file);
+        if (entry == null) {
+            throw invalidParams("Lexer grammar " + tokenVocab + " isn't in the workspace");
+        }
+        Grammar lexer = documents.process(documents.get(entry.uri())).grammar();
+        if (!(lexer instanceof LexerGrammar lexerGrammar)) {
+            throw invalidParams(entry.uri() + " is not a lexer grammar");
+        }
+        return lexerGrammar;
+    }
+
+    private static String readInput(ProfileParams params) {
+        if (params.input() != null) {
+            return params.input();
+        }
+        Path file = params.inputUri() == null ? null : Document.toFile(params.inputUri());
+        if (file == null) {
+            throw invalidParams("Either input or a file inputUri is required");
+        }
+        try {
+            return Files.readString(file);
+        } catch (IOException ex) {
+            throw invalidParams("Couldn't read " + params.inputUri() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * The open snapshot taken on the message thread, or else the file read
+     * from disk on the request thread.
+     */
+    private Document document(String uri, Document open) {
+        return open != null ? open : documents.get(uri);
+    }
+
+    private static ResponseErrorException invalidParams(String message) {
+        return new ResponseErrorException(new ResponseError(ResponseErrorCode.InvalidParams, message, null));
+    }
+
+    /**
+     * Runs a request on the request executor. The open document is looked up
+     * on the message thread before, so the request sees the edits that came
+     * before it even if a later didChange is processed while it runs.
+     */
+    private <R> CompletableFuture<R> computeAsync(String method, Function<CancelChecker, R> code) {
+        long submitted = System.nanoTime();
+        // the workspace lint backs off while requests are running
+        activeRequests.incrementAndGet();
+        Events.Request event = new Events.Request();
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<R> future = CompletableFutures.computeAsync(requests(), cancelChecker -> {
+            if (!started.compareAndSet(false, true)) {
+                throw new CancellationException();
+            }
+            long queued = System.nanoTime() - submitted;
+            metrics.record("queue/requests", queued);
+            event.begin();
+            event.method = method;
+            event.queuedNanos = queued;
+            long allocated = Metrics.allocatedBytes();
+            boolean failed = true;
+            try {
+                R result = code.apply(cancelChecker);
+                failed = false;
+                return result;
+            } finally {
+                if (allocated >= 0) {
+                    metrics.recordAllocation(method, Metrics.allocatedBytes() - allocated);
                 }
-                super.enterElement(tree);
+                // when the work ends, not when the future does: a cancelled
+                // request keeps running until its next checkCanceled
+                activeRequests.decrementAndGet();
+                metrics.record(method, System.nanoTime() - submitted);
+                event.failed = failed;
+                event.commit();
+            }
+        });
+        future.whenComplete((result, ex) -> {
+            // cancelled or rejected before it got to run
+            if (started.compareAndSet(false, true)) {
+                activeRequests.decrementAndGet();
             }
+        });
+        return future;
+    }
 
-            @Override
-            protected void enterLexerRule(GrammarAST tree) {
-                Tree child = tree.getChild(0);
-                if (isAtPosition(child, position)) {
-                    result.set(child);
-                    return;
+    private List<Location> findDefinitions(Document document, ParsedGrammar parsed, Position position, CancelChecker cancelChecker) {
+        ArrayList<Location> locations = new ArrayList<>();
+        Tree tree = findNode(position, parsed);
+        if (tree == null) {
+            return locations;
+        }
+        SymbolTable.Kind kind = SymbolTable.kindOf(tree.getType());
+        if (kind == null) {
+            return locations;
+        }
+        String name = tree.getText();
+        SymbolTable.Symbol symbol = parsed.symbols().lookup(kind, name);
+        if (isDeclared(symbol)) {
+            addDeclarations(locations, document.uri(), symbol);
+            return locations;
+        }
+        WorkspaceIndex.Entry declaring = findDeclaring(document.file(), kind, name, cancelChecker);
+        if (declaring != null) {
+            addDeclarations(locations, declaring.uri(), declaring.symbols().lookup(kind, name));
+        }
+        return locations;
+    }
+
+    private List<Location> findReferences(
+            Document document,
+            ParsedGrammar parsed,
+            Position position,
+            boolean includeDeclaration,
+            CancelChecker cancelChecker) {
+        Tree tree = findNode(position, parsed);
+        if (tree instanceof RuleAST) {
+            tree = tree.getChild(0);
+        }
+        if (tree == null) {
+            return List.of();
+        }
+        SymbolTable.Kind kind = SymbolTable.kindOf(tree.getType());
+        if (kind == null) {
+            return List.of();
+        }
+        String name = tree.getText();
+        String uri = document.uri();
+        Path file = document.file();
+        ArrayList<Location> locations = new ArrayList<>();
+        if (file == null) {
+            addReferences(locations, uri, parsed.symbols().lookup(kind, name), includeDeclaration);
+            return locations;
+        }
+        Path root = file;
+        if (!isDeclared(parsed.symbols().lookup(kind, name))) {
+            WorkspaceIndex.Entry declaring = findDeclaring(file, kind, name, cancelChecker);
+            if (declaring != null) {
+                root = declaring.path();
+            }
+        }
+        ArrayList<Path> files = new ArrayList<>();
+        files.add(root);
+        for (var dependent : workspace.dependents(root)) {
+            files.add(dependent.path());
+        }
+        for (Path path : files) {
+            cancelChecker.checkCanceled();
+            SymbolTable symbols;
+            String fileUri;
+            if (path.equals(file)) {
+                symbols = parsed.symbols();
+                fileUri = uri;
+            } else {
+                WorkspaceIndex.Entry entry = workspace.get(path);
+                if (entry == null) {
+                    continue;
                 }
-                super.enterRule(tree);
+                symbols = entry.symbols();
+                fileUri = entry.uri();
             }
-        };
-        grammarTreeVisitor.visitGrammar(rootAST);
-        return result.get();
+            SymbolTable.Symbol symbol = symbols.lookup(kind, name);
+            // a dependent that declares the name itself shadows the one from root
+            if (!path.equals(root) && isDeclared(symbol)) {
+                continue;
+            }
+            addReferences(locations, fileUri, symbol, includeDeclaration);
+        }
+        return locations;
+    }
+
+    /**
+     * Prefix indexes of the document and the grammars it imports. While the
+     * user types the names of the last parsed version are used rather than
+     * waiting for a parse of every keystroke.
+     */
+    private List<Completions.Source> completionSources(Document document, CancelChecker cancelChecker) {
+        ParsedGrammar parsed = document.parsed;
+        SymbolTable symbols = parsed != null ? parsed.symbols() : document.previousSymbols();
+        if (symbols == null) {
+            symbols = documents.parse(document).symbols();
+        }
+        ArrayList<Completions.Source> sources = new ArrayList<>();
+        sources.add(new Completions.Source(symbols.prefixIndex(), null));
+        Path file = document.file();
+        if (file != null) {
+            for (var dependency : workspace.dependencies(file)) {
+                cancelChecker.checkCanceled();
+                sources.add(new Completions.Source(dependency.symbols().prefixIndex(), dependency.name()));
+            }
+        }
+        return sources;
+    }
+
+    private SymbolAt symbolAt(ParsedGrammar parsed, Position position) {
+        Tree tree = findNode(position, parsed);
+        if (tree instanceof RuleAST) {
+            tree = tree.getChild(0);
+        }
+        if (tree == null) {
+            return null;
+        }
+        SymbolTable.Kind kind = SymbolTable.kindOf(tree.getType());
+        if (kind != SymbolTable.Kind.RULE && kind != SymbolTable.Kind.TOKEN) {
+            return null;
+        }
+        String name = tree.getText();
+        return new SymbolAt(kind, name, range(tree.getLine() - 1, tree.getCharPositionInLine(), name));
+    }
+
+    /**
+     * The grammar declaring the symbol, null if it isn't declared anywhere
+     * like EOF or if the document is not a file.
+     */
+    private Path findDeclaringFile(Document document, ParsedGrammar parsed, SymbolAt symbol, CancelChecker cancelChecker) {
+        if (isDeclared(parsed.symbols().lookup(symbol.kind(), symbol.name()))) {
+            return document.file();
+        }
+        WorkspaceIndex.Entry declaring = findDeclaring(document.file(), symbol.kind(), symbol.name(), cancelChecker);
+        return declaring == null ? null : declaring.path();
+    }
+
+    /**
+     * Renames a rule or token in the grammar declaring it and in every
+     * grammar importing it or using it through tokenVocab. The files are
+     * handled one after the other on the request thread, checking for
+     * cancellation before each: the edits come from symbol tables, open
+     * documents are parsed and all other files are taken from the workspace
+     * index, so a file is cheap and a second pool would only make the
+     * request wait behind the workspace lint.
+     */
+    private WorkspaceEdit renameSymbol(
+            Document document,
+            ParsedGrammar parsed,
+            Position position,
+            String newName,
+            CancelChecker cancelChecker) {
+        SymbolAt symbol = symbolAt(parsed, position);
+        if (symbol == null) {
+            throw invalidParams("No rule or token to rename at this position");
+        }
+        checkNewName(symbol.kind(), newName);
+        Path file = document.file();
+        if (file == null && isDeclared(parsed.symbols().lookup(symbol.kind(), symbol.name()))) {
+            List<TextEdit> edits = renameEdits(document.uri(), parsed.symbols(), symbol, newName);
+            return new WorkspaceEdit(Map.of(document.uri(), edits));
+        }
+        Path root = findDeclaringFile(document, parsed, symbol, cancelChecker);
+        if (root == null) {
+            throw invalidParams(symbol.name() + " is not declared in the workspace");
+        }
+        ArrayList<Path> files = new ArrayList<>();
+        files.add(root);
+        for (var dependent : workspace.dependents(root)) {
+            files.add(dependent.path());
+        }
+        LinkedHashMap<String, List<TextEdit>> changes = new LinkedHashMap<>();
+        for (Path path : files) {
+            cancelChecker.checkCanceled();
+            String uri;
+            SymbolTable symbols;
+            if (path.equals(file)) {
+                uri = document.uri();
+                symbols = parsed.symbols();
+            } else {
+                WorkspaceIndex.Entry entry = workspace.get(path);
+                if (entry == null) {
+                    continue;
+                }
+                uri = entry.uri();
+                Document open = documents.getIfOpen(uri);
+                symbols = open == null ? entry.symbols() : documents.parse(open).symbols();
+            }
+            // a dependent that declares the name itself shadows the one from root
+            if (!path.equals(root) && isDeclared(symbols.lookup(symbol.kind(), symbol.name()))) {
+                continue;
+            }
+            List<TextEdit> edits = renameEdits(uri, symbols, symbol, newName);
+            if (!edits.isEmpty()) {
+                changes.put(uri, edits);
+            }
+        }
+        return new WorkspaceEdit(changes);
+    }
+
+    private static List<TextEdit> renameEdits(String uri, SymbolTable symbols, SymbolAt symbol, String newName) {
+        SymbolTable.Symbol renamed = symbols.lookup(symbol.kind(), symbol.name());
+        if (renamed == null) {
+            return List.of();
+        }
+        if (isDeclared(symbols.lookup(symbol.kind(), newName))) {
+            throw invalidParams(newName + " is already declared in " + uri);
+        }
+        ArrayList<TextEdit> edits = new ArrayList<>();
+        for (int i = 0; i < renamed.declarationCount(); i++) {
+            Range range = range(renamed.declarationLine(i), renamed.declarationColumn(i), symbol.name());
+            edits.add(new TextEdit(range, newName));
+        }
+        for (int i = 0; i < renamed.useCount(); i++) {
+            Range range = range(renamed.useLine(i), renamed.useColumn(i), symbol.name());
+            edits.add(new TextEdit(range, newName));
+        }
+        return edits;
+    }
+
+    private static void checkNewName(SymbolTable.Kind kind, String name) {
+        boolean identifier = !name.isEmpty()
+            && Character.isLetter(name.charAt(0))
+            && name.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '_');
+        if (!identifier || RESERVED_NAMES.contains(name)) {
+            throw invalidParams(name + " is not a valid name");
+        }
+        if (kind == SymbolTable.Kind.RULE && !Character.isLowerCase(name.charAt(0))) {
+            throw invalidParams("Parser rule names must start with a lowercase letter");
+        }
+        if (kind == SymbolTable.Kind.TOKEN && !Character.isUpperCase(name.charAt(0))) {
+            throw invalidParams("Token names must start with an uppercase letter");
+        }
+    }
+
+    private static boolean isDeclared(SymbolTable.Symbol symbol) {
+        return symbol != null && symbol.declarationCount() > 0;
+    }
+
+    private WorkspaceIndex.Entry findDeclaring(Path file, SymbolTable.Kind kind, String name, CancelChecker cancelChecker) {
+        if (file == null) {
+            return null;
+        }
+        for (var dependency : workspace.dependencies(file)) {
+            cancelChecker.checkCanceled();
+            if (isDeclared(dependency.symbols().lookup(kind, name))) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+
+    private static void addDeclarations(List<Location> locations, String uri, SymbolTable.Symbol symbol) {
+        for (int i = 0; i < symbol.declarationCount(); i++) {
+            Range range = range(symbol.declarationLine(i), symbol.declarationColumn(i), symbol.name());
+            locations.add(new Location(uri, range));
+        }
+    }
+
+    private static void addReferences(List<Location> locations, String uri, SymbolTable.Symbol symbol, boolean includeDeclaration) {
+        if (symbol == null) {
+            return;
+        }
+        if (includeDeclaration) {
+            addDeclarations(locations, uri, symbol);
+        }
+        for (int i = 0; i < symbol.useCount(); i++) {
+            locations.add(new Location(uri, range(symbol.useLine(i), symbol.useColumn(i), symbol.name())));
+        }
+    }
+
+    private static Range range(int line, int character, String text) {
+        return new Range(new Position(line, character), new Position(line, character + text.length()));
+    }
+
+    protected Tree findNode(Position position, ParsedGrammar parsed) {
+        long start = System.nanoTime();
+        Tree tree = parsed.positions().find(position.getLine(), position.getCharacter());
+        metrics.record("findNode", System.nanoTime() - start);
+        return tree;
     }
 
     @Override
@@ -258,32 +1162,212 @@ public class Antlr4Server implements LanguageServer, LanguageClientAware {
 
             @Override
             public void didChangeConfiguration(DidChangeConfigurationParams params) {
+                settings = settings.with(params.getSettings());
+                resizeBackground();
+                documents.setBudget(settings.grammarCacheMegabytes() << 20);
+                scheduleTelemetry();
             }
 
             @Override
             public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
+                boolean lint = settings.lintWorkspace() && workspaceIndexed.isDone();
+                ArrayList<CompletableFuture<Void>> reindexed = new ArrayList<>();
+                LinkedHashSet<Path> changed = new LinkedHashSet<>();
+                for (FileEvent event : params.getChanges()) {
+                    String uri = event.getUri();
+                    Path file = Document.toFile(uri);
+                    if (file == null || !file.getFileName().toString().endsWith(".g4")) {
+                        continue;
+                    }
+                    changed.add(file);
+                    if (lint) {
+                        // the grammars that depended on the file before the change
+                        workspace.dependents(file).forEach(entry -> changed.add(entry.path()));
+                    }
+                    documents.invalidate(uri);
+                    if (event.getType() == FileChangeType.Deleted) {
+                        workspace.remove(file);
+                        lintKeys.remove(file);
+                        if (settings.lintWorkspace() && client != null) {
+                            client.publishDiagnostics(new PublishDiagnosticsParams(uri, List.of()));
+                        }
+                    } else if (documents.getIfOpen(uri) == null) {
+                        reindexed.add(CompletableFuture.runAsync(() -> workspace.index(file), background()));
+                    }
+                }
+                if (lint) {
+                    // only the changed files and the grammars depending on them get a new lint key
+                    CompletableFuture.allOf(reindexed.toArray(CompletableFuture[]::new)).thenRun(() -> {
+                        LinkedHashSet<Path> files = new LinkedHashSet<>(changed);
+                        for (Path file : changed) {
+                            workspace.dependents(file).forEach(entry -> files.add(entry.path()));
+                        }
+                        lintWorkspace(files);
+                    });
+                }
+            }
+
+            @Override
+            public CompletableFuture<Either<List<? extends SymbolInformation>, List<? extends WorkspaceSymbol>>> symbol(WorkspaceSymbolParams params) {
+                String query = params.getQuery();
+                return computeAsync("workspace/symbol", cancelChecker -> {
+                    List<WorkspaceSymbol> symbols = workspace.search().search(query, MAX_WORKSPACE_SYMBOLS).stream()
+                        .map(match -> new WorkspaceSymbol(
+                            match.name(),
+                            DocumentSymbols.kind(match.kind()),
+                            Either.forLeft(new Location(
+                                match.path().toUri().toString(),
+                                range(match.line(), match.column(), match.name()))),
+                            match.grammar()))
+                        .toList();
+                    return Either.forRight(symbols);
+                });
             }
         };
     }
 
     @Override
-    public CompletableFuture<InitializeResult> initialize(InitializeParams arg0) {
+    public CompletableFuture<InitializeResult> initialize(InitializeParams params) {
+        settings = Settings.parse(params.getInitializationOptions());
+        documents.setBudget(settings.grammarCacheMegabytes() << 20);
+        List<Path> folders = workspaceFolders(params);
+        var watchedFiles = Optional.ofNullable(params.getCapabilities())
+            .map(ClientCapabilities::getWorkspace)
+            .map(WorkspaceClientCapabilities::getDidChangeWatchedFiles);
+        watchFilesDynamically = watchedFiles
+            .map(DidChangeWatchedFilesCapabilities::getDynamicRegistration)
+            .orElse(false);
+        workDoneProgress = Optional.ofNullable(params.getCapabilities())
+            .map(ClientCapabilities::getWindow)
+            .map(WindowClientCapabilities::getWorkDoneProgress)
+            .orElse(false);
+        ExecutorService executor = background();
+        if (settings.indexCacheDirectory() != null && !folders.isEmpty()) {
+            indexCache = IndexCache.forWorkspace(Path.of(settings.indexCacheDirectory()), folders);
+            loadIndexCache();
+        }
+        // cached entries answer requests right away, revalidating them catches
+        // files changed while the server wasn't running
+        workspaceIndexed = CompletableFuture
+            .supplyAsync(() -> workspace.indexFolders(folders, executor,
+                (path, ex) -> logMessage(MessageType.Warning, "Skipped " + path + " while indexing: " + ex)), executor)
+            .thenCompose(indexed -> indexed)
+            .thenRun(this::saveIndexCache);
         var capabilities = new ServerCapabilities();
+        var textDocumentSync = new TextDocumentSyncOptions();
+        textDocumentSync.setOpenClose(true);
+        textDocumentSync.setChange(TextDocumentSyncKind.Incremental);
+        textDocumentSync.setSave(new SaveOptions(false));
+        capabilities.setTextDocumentSync(textDocumentSync);
         capabilities.setHoverProvider(true);
         capabilities.setDefinitionProvider(true);
         capabilities.setReferencesProvider(true);
+        capabilities.setRenameProvider(new RenameOptions(true));
+        capabilities.setDocumentSymbolProvider(true);
+        capabilities.setWorkspaceSymbolProvider(true);
+        capabilities.setCompletionProvider(new CompletionOptions(false, List.of("(")));
+        var semanticTokensOptions = new SemanticTokensWithRegistrationOptions(SemanticTokensEncoder.legend());
+        semanticTokensOptions.setFull(new SemanticTokensServerFull(true));
+        semanticTokensOptions.setRange(true);
+        capabilities.setSemanticTokensProvider(semanticTokensOptions);
         var serverInfo = new ServerInfo("antlr4ls", "0.1.0");
         var result = new InitializeResult(capabilities, serverInfo);
         return CompletableFuture.completedFuture(result);
     }
 
+    @SuppressWarnings("deprecation")
+    private static List<Path> workspaceFolders(InitializeParams params) {
+        ArrayList<String> uris = new ArrayList<>();
+        if (params.getWorkspaceFolders() != null) {
+            for (WorkspaceFolder folder : params.getWorkspaceFolders()) {
+                uris.add(folder.getUri());
+            }
+        } else if (params.getRootUri() != null) {
+            uris.add(params.getRootUri());
+        }
+        ArrayList<Path> folders = new ArrayList<>();
+        for (String uri : uris) {
+            Path folder = Document.toFile(uri);
+            if (folder != null) {
+                folders.add(folder);
+            }
+        }
+        return folders;
+    }
+
+    @Override
+    public void initialized(InitializedParams params) {
+        scheduleTelemetry();
+        if (settings.lintWorkspace()) {
+            workspaceIndexed.thenRun(this::lintWorkspace);
+        }
+        if (!watchFilesDynamically || client == null) {
+            return;
+        }
+        var watcher = new FileSystemWatcher(Either.forLeft("**/*.g4"));
+        var options = new DidChangeWatchedFilesRegistrationOptions(List.of(watcher));
+        var registration = new Registration("antlr4ls-watch-grammars", "workspace/didChangeWatchedFiles", options);
+        client.registerCapability(new RegistrationParams(List.of(registration)));
+    }
+
     @Override
     public void exit() {
         System.exit(0);
     }
 
+    private void loadIndexCache() {
+        long start = System.nanoTime();
+        try {
+            var entries = indexCache.load();
+            entries.forEach(workspace::put);
+            logMessage(String.format(
+                "loaded %d cached index entries in %.1f ms", entries.size(), (System.nanoTime() - start) / 1e6));
+        } catch (IOException | RuntimeException ex) {
+            // start from an empty index, the revalidation rebuilds the cache
+            logMessage(MessageType.Warning, "Couldn't load index cache: " + ex.getMessage());
+        }
+    }
+
+    private void saveIndexCache() {
+        IndexCache cache = indexCache;
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.save(workspace.diskEntries());
+        } catch (IOException ex) {
+            logMessage(MessageType.Warning, "Couldn't save index cache: " + ex.getMessage());
+        }
+    }
+
     @Override
     public CompletableFuture<Object> shutdown() {
+        if (workspaceIndexed.isDone()) {
+            saveIndexCache();
+        }
+        WorkspaceLint lint = workspaceLint;
+        if (lint != null) {
+            lint.cancel();
+        }
+        synchronized (this) {
+            if (lintScheduler != null) {
+                lintScheduler.close();
+                lintScheduler = null;
+            }
+            if (background != null) {
+                background.shutdownNow();
+                background = null;
+            }
+            if (requests != null) {
+                requests.shutdownNow();
+                requests = null;
+            }
+            if (telemetry != null) {
+                telemetry.shutdownNow();
+                telemetry = null;
+                telemetryTask = null;
+            }
+        }
         return CompletableFuture.completedFuture(null);
     }
 
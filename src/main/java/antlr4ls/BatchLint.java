@@ -0,0 +1,347 @@
+package antlr4ls;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.antlr.v4.parse.ANTLRParser;
+import org.antlr.v4.tool.Grammar;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+
+/**
+ * Headless lint of all grammars below some folders, for CI:
+ * {@code antlr4ls lint [--format json|sarif] [--threads n] <paths...>}.
+ *
+ * Runs the same checks as linting an editor buffer. Every grammar is linted
+ * as soon as the grammars it depends on are, so a parser grammar gets the
+ * token types of its tokenVocab lexer without a generated .tokens file.
+ * Diagnostics go to stdout, a timing summary to stderr. The exit code is 0
+ * without errors, 1 if any grammar has errors and 2 for bad arguments.
+ */
+public class BatchLint {
+
+    public enum Format {
+        JSON, SARIF
+    }
+
+    public record Result(Path path, List<Diagnostic> diagnostics, long parseNanos, long processNanos) {
+
+        public long count(DiagnosticSeverity severity) {
+            return diagnostics.stream().filter(diagnostic -> diagnostic.getSeverity() == severity).count();
+        }
+    }
+
+    private record Linted(Result result, Grammar grammar) {
+    }
+
+    private static final String USAGE = "usage: antlr4ls lint [--format json|sarif] [--threads n] <paths...>";
+    private static final int SLOWEST = 10;
+
+    private final WorkspaceIndex index = new WorkspaceIndex();
+    private final Map<Path, ParsedGrammar> parsed = new HashMap<>();
+    private final Map<Path, Long> parseNanos = new HashMap<>();
+    private final Map<Path, CompletableFuture<Linted>> scheduled = new HashMap<>();
+    private final int threads;
+
+    public BatchLint(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public static int main(List<String> args, PrintStream out, PrintStream err) {
+        Format format = Format.JSON;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<Path> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                String arg = args.get(i);
+                switch (arg) {
+                    case "--format" -> format = format(args.get(++i));
+                    case "--threads" -> threads = Integer.parseInt(args.get(++i));
+                    default -> {
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("unknown option " + arg);
+                        }
+                        paths.add(Path.of(arg).toAbsolutePath().normalize());
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            err.println(ex instanceof IndexOutOfBoundsException ? "missing option value" : ex.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        if (paths.isEmpty()) {
+            err.println(USAGE);
+            return 2;
+        }
+        for (Path path : paths) {
+            if (!Files.exists(path)) {
+                err.println("no such file or directory: " + path);
+                return 2;
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new BatchLint(threads).lint(paths);
+        long wallNanos = System.nanoTime() - start;
+
+        JsonObject report = format == Format.SARIF ? sarif(results) : json(results);
+        out.println(new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(report));
+        out.flush();
+        summarize(results, wallNanos, threads, err);
+        boolean errors = results.stream().anyMatch(result -> result.count(DiagnosticSeverity.Error) > 0);
+        return errors ? 1 : 0;
+    }
+
+    private static Format format(String name) {
+        for (Format format : Format.values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("unknown format " + name);
+    }
+
+    /**
+     * Lints the grammars below the given folders, or the given files, sorted
+     * by path.
+     */
+    public List<Result> lint(List<Path> paths) {
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                files.addAll(WorkspaceIndex.findGrammars(path));
+            } else {
+                files.add(path);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // parse and index everything first, dependencies are resolved by name
+            CompletableFuture<?>[] parses = files.stream()
+                .map(file -> CompletableFuture.runAsync(() -> parse(file), executor))
+                .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(parses).join();
+
+            ArrayList<CompletableFuture<Linted>> futures = new ArrayList<>();
+            for (Path file : files) {
+                futures.add(schedule(file, new HashSet<>(), executor));
+            }
+            return futures.stream()
+                .map(future -> future.join().result())
+                .sorted(Comparator.comparing(Result::path))
+                .toList();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void parse(Path file) {
+        long start = System.nanoTime();
+        Rope text;
+        try {
+            text = Rope.of(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            // let the tool report why the file can't be read
+            text = null;
+        }
+        ParsedGrammar grammar = ParsedGrammar.parse(file.toString(), text);
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            parsed.put(file, grammar);
+            parseNanos.put(file, nanos);
+        }
+        index.put(WorkspaceIndex.entry(file, grammar, null));
+    }
+
+    /**
+     * Lint of {@code file} once the grammars it depends on are linted.
+     * Dependency cycles are cut, the tool reports those itself.
+     */
+    private CompletableFuture<Linted> schedule(Path file, Set<Path> visiting, ExecutorService executor) {
+        CompletableFuture<Linted> existing = scheduled.get(file);
+        if (existing != null) {
+            return existing;
+        }
+        visiting.add(file);
+        WorkspaceIndex.Entry entry = index.get(file);
+        ArrayList<CompletableFuture<Linted>> dependencies = new ArrayList<>();
+        CompletableFuture<Linted> vocab = null;
+        for (String name : entry.dependencies()) {
+            WorkspaceIndex.Entry dependency = index.resolve(name, file);
+            if (dependency == null || visiting.contains(dependency.path())) {
+                continue;
+            }
+            CompletableFuture<Linted> future = schedule(dependency.path(), visiting, executor);
+            dependencies.add(future);
+            if (name.equals(entry.tokenVocab())) {
+                vocab = future;
+            }
+        }
+        visiting.remove(file);
+        CompletableFuture<Linted> vocabFuture = vocab;
+        CompletableFuture<Linted> future = CompletableFuture
+            .allOf(dependencies.toArray(CompletableFuture[]::new))
+            .thenApplyAsync(ignored -> process(entry, vocabFuture == null ? null : vocabFuture.join().grammar()), executor);
+        scheduled.put(file, future);
+        return future;
+    }
+
+    private Linted process(WorkspaceIndex.Entry entry, Grammar vocab) {
+        Path file = entry.path();
+        ParsedGrammar grammar;
+        long nanos;
+        synchronized (this) {
+            grammar = parsed.get(file);
+            nanos = parseNanos.get(file);
+        }
+        long start = System.nanoTime();
+        ProcessedGrammar processed;
+        try {
+            processed = ProcessedGrammar.process(grammar, file.toString(), vocab);
+        } catch (RuntimeException ex) {
+            ArrayList<Diagnostic> diagnostics = new ArrayList<>(grammar.diagnostics());
+            Range range = new Range(new Position(0, 0), new Position(0, 0));
+            diagnostics.add(new Diagnostic(range, "lint failed: " + ex, DiagnosticSeverity.Error, "antlr4"));
+            processed = new ProcessedGrammar(null, diagnostics);
+        }
+        Result result = new Result(file, processed.diagnostics(), nanos, System.nanoTime() - start);
+        // only lexers are needed afterwards, as the vocabulary of parsers
+        boolean lexer = entry.grammarType() == ANTLRParser.LEXER;
+        return new Linted(result, lexer ? processed.grammar() : null);
+    }
+
+    static JsonObject json(List<Result> results) {
+        JsonArray files = new JsonArray();
+        long errors = 0;
+        long warnings = 0;
+        for (Result result : results) {
+            JsonArray diagnostics = new JsonArray();
+            for (Diagnostic diagnostic : result.diagnostics()) {
+                Range range = diagnostic.getRange();
+                JsonObject item = new JsonObject();
+                item.addProperty("severity", severity(diagnostic));
+                item.addProperty("line", range.getStart().getLine() + 1);
+                item.addProperty("column", range.getStart().getCharacter() + 1);
+                item.addProperty("endLine", range.getEnd().getLine() + 1);
+                item.addProperty("endColumn", range.getEnd().getCharacter() + 1);
+                item.addProperty("message", diagnostic.getMessage());
+                diagnostics.add(item);
+            }
+            JsonObject file = new JsonObject();
+            file.addProperty("path", result.path().toString());
+            file.addProperty("parseMillis", result.parseNanos() / 1e6);
+            file.addProperty("processMillis", result.processNanos() / 1e6);
+            file.add("diagnostics", diagnostics);
+            files.add(file);
+            errors += result.count(DiagnosticSeverity.Error);
+            warnings += result.count(DiagnosticSeverity.Warning);
+        }
+        JsonObject report = new JsonObject();
+        report.add("files", files);
+        report.addProperty("errors", errors);
+        report.addProperty("warnings", warnings);
+        return report;
+    }
+
+    /**
+     * SARIF 2.1.0 log with one run, as read by code scanning tools.
+     */
+    static JsonObject sarif(List<Result> results) {
+        Path workingDirectory = Path.of("").toAbsolutePath();
+        JsonArray sarifResults = new JsonArray();
+        for (Result result : results) {
+            String uri = result.path().startsWith(workingDirectory)
+                ? workingDirectory.relativize(result.path()).toString().replace('\\', '/')
+                : result.path().toUri().toString();
+            for (Diagnostic diagnostic : result.diagnostics()) {
+                Range range = diagnostic.getRange();
+                JsonObject region = new JsonObject();
+                region.addProperty("startLine", range.getStart().getLine() + 1);
+                region.addProperty("startColumn", range.getStart().getCharacter() + 1);
+                region.addProperty("endLine", range.getEnd().getLine() + 1);
+                region.addProperty("endColumn", range.getEnd().getCharacter() + 1);
+                JsonObject artifact = new JsonObject();
+                artifact.addProperty("uri", uri);
+                JsonObject physical = new JsonObject();
+                physical.add("artifactLocation", artifact);
+                physical.add("region", region);
+                JsonObject location = new JsonObject();
+                location.add("physicalLocation", physical);
+                JsonArray locations = new JsonArray();
+                locations.add(location);
+                JsonObject message = new JsonObject();
+                message.addProperty("text", diagnostic.getMessage());
+                JsonObject item = new JsonObject();
+                item.addProperty("level", severity(diagnostic).equals("information") ? "note" : severity(diagnostic));
+                item.add("message", message);
+                item.add("locations", locations);
+                sarifResults.add(item);
+            }
+        }
+        JsonObject driver = new JsonObject();
+        driver.addProperty("name", "antlr4ls");
+        driver.addProperty("informationUri", "https://www.antlr.org/");
+        JsonObject tool = new JsonObject();
+        tool.add("driver", driver);
+        JsonObject run = new JsonObject();
+        run.add("tool", tool);
+        run.add("results", sarifResults);
+        JsonArray runs = new JsonArray();
+        runs.add(run);
+        JsonObject log = new JsonObject();
+        log.addProperty("$schema", "https://json.schemastore.org/sarif-2.1.0.json");
+        log.addProperty("version", "2.1.0");
+        log.add("runs", runs);
+        return log;
+    }
+
+    private static String severity(Diagnostic diagnostic) {
+        DiagnosticSeverity severity = diagnostic.getSeverity();
+        if (severity == null) {
+            return "error";
+        }
+        return switch (severity) {
+            case Error -> "error";
+            case Warning -> "warning";
+            case Information, Hint -> "information";
+        };
+    }
+
+    private static void summarize(List<Result> results, long wallNanos, int threads, PrintStream err) {
+        long errors = results.stream().mapToLong(result -> result.count(DiagnosticSeverity.Error)).sum();
+        long warnings = results.stream().mapToLong(result -> result.count(DiagnosticSeverity.Warning)).sum();
+        err.printf(Locale.ROOT, "linted %d grammars in %.1f ms on %d threads: %d errors, %d warnings%n",
+            results.size(), wallNanos / 1e6, threads, errors, warnings);
+        List<Result> slowest = results.stream()
+            .sorted(Comparator.comparingLong((Result result) -> result.parseNanos() + result.processNanos()).reversed())
+            .limit(SLOWEST)
+            .toList();
+        for (Result result : slowest) {
+            err.printf(Locale.ROOT, "%9.1f ms  %s (syntax %.1f ms, semantic %.1f ms)%n",
+                (result.parseNanos() + result.processNanos()) / 1e6, result.path(),
+                result.parseNanos() / 1e6, result.processNanos() / 1e6);
+        }
+    }
+}
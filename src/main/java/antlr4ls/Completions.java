@@ -0,0 +1,312 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.eclipse.lsp4j.CompletionItem;
+import org.eclipse.lsp4j.CompletionItemKind;
+import org.eclipse.lsp4j.CompletionList;
+
+import antlr4ls.SymbolTable.Kind;
+
+/**
+ * Completion of rule, token, channel, mode, option and command names.
+ *
+ * The scope is taken from the text before the cursor instead of the AST, the
+ * text is what the user is typing and the AST may belong to an older version
+ * or not exist because of syntax errors.
+ */
+public final class Completions {
+
+    public enum Scope {
+        TOP_LEVEL,
+        PARSER_RULE,
+        LEXER_RULE,
+        LEXER_COMMAND,
+        CHANNEL,
+        MODE,
+        TYPE,
+        OPTIONS,
+        NONE
+    }
+
+    public record Context(Scope scope, String prefix) {
+    }
+
+    /**
+     * Names of a grammar, {@code grammar} is null for the current one.
+     */
+    public record Source(PrefixIndex index, String grammar) {
+    }
+
+    private record Candidate(String name, CompletionItemKind kind, String detail, int rank) {
+    }
+
+    public static final int MAX_ITEMS = 100;
+
+    private static final int MAX_SCAN = 20_000;
+
+    private static final List<String> KEYWORDS = List.of(
+        "grammar", "lexer", "parser", "fragment", "import", "options", "tokens", "channels", "mode");
+    private static final List<String> LEXER_COMMANDS = List.of(
+        "skip", "more", "popMode", "mode", "pushMode", "type", "channel");
+    private static final List<String> OPTIONS = List.of(
+        "tokenVocab", "superClass", "language", "TokenLabelType", "contextSuperClass",
+        "caseInsensitive", "accessLevel", "exportMacro");
+    private static final List<String> RULE_SCOPE_KEYWORDS = List.of("returns", "locals", "throws", "options");
+
+    // exact-case matches first, then by rank, then shorter names
+    private static final Comparator<Candidate> BEST_FIRST = Comparator
+        .comparingInt(Candidate::rank)
+        .thenComparingInt(candidate -> candidate.name().length())
+        .thenComparing(Candidate::name);
+
+    private Completions() {
+    }
+
+    public static Context context(Rope text, int offset) {
+        int start = offset;
+        while (start > 0 && Character.isJavaIdentifierPart(text.charAt(start - 1))) {
+            start--;
+        }
+        String prefix = text.substring(start, offset);
+        int p = skipWhitespace(text, start - 1);
+        if (p >= 0 && text.charAt(p) == '(') {
+            switch (identifierBefore(text, p)) {
+                case "channel" -> {
+                    return new Context(Scope.CHANNEL, prefix);
+                }
+                case "mode", "pushMode" -> {
+                    return new Context(Scope.MODE, prefix);
+                }
+                case "type" -> {
+                    return new Context(Scope.TYPE, prefix);
+                }
+                default -> {
+                }
+            }
+        }
+        int depth = 0;
+        boolean command = false;
+        boolean alternativeStart = false;
+        int limit = Math.max(-1, p - MAX_SCAN);
+        for (; p > limit; p--) {
+            char c = text.charAt(p);
+            switch (c) {
+                case '\'' -> {
+                    // skip back over the literal
+                    p--;
+                    while (p > 0 && (text.charAt(p) != '\'' || text.charAt(p - 1) == '\\')) {
+                        p--;
+                    }
+                }
+                case ')', ']' -> depth++;
+                case '(', '[' -> depth = Math.max(0, depth - 1);
+                case '}' -> p = matchingOpen(text, p);
+                case '{' -> {
+                    String word = identifierBefore(text, p);
+                    return new Context(word.equals("options") ? Scope.OPTIONS : Scope.NONE, prefix);
+                }
+                case '|' -> alternativeStart |= depth == 0;
+                case '>' -> {
+                    if (p > 0 && text.charAt(p - 1) == '-' && depth == 0 && !alternativeStart) {
+                        command = true;
+                    }
+                }
+                case ';' -> {
+                    return new Context(Scope.TOP_LEVEL, prefix);
+                }
+                case ':' -> {
+                    if (p > 0 && text.charAt(p - 1) == ':') {
+                        // @parser::members
+                        p--;
+                        continue;
+                    }
+                    String rule = ruleNameBefore(text, p);
+                    if (rule.isEmpty()) {
+                        return new Context(Scope.NONE, prefix);
+                    }
+                    if (command) {
+                        return new Context(Scope.LEXER_COMMAND, prefix);
+                    }
+                    return new Context(Character.isUpperCase(rule.charAt(0)) ? Scope.LEXER_RULE : Scope.PARSER_RULE, prefix);
+                }
+                default -> {
+                }
+            }
+        }
+        return new Context(p < 0 ? Scope.TOP_LEVEL : Scope.NONE, prefix);
+    }
+
+    public static CompletionList complete(Context context, List<Source> sources) {
+        String prefix = context.prefix();
+        PriorityQueue<Candidate> best = new PriorityQueue<>(BEST_FIRST.reversed());
+        int[] matches = {0};
+        Set<String> seen = new HashSet<>();
+        Consumer<Candidate> offer = candidate -> {
+            if (!seen.add(candidate.kind() + candidate.name())) {
+                return;
+            }
+            matches[0]++;
+            best.add(candidate);
+            if (best.size() > MAX_ITEMS) {
+                best.poll();
+            }
+        };
+        switch (context.scope()) {
+            case TOP_LEVEL -> fixed(KEYWORDS, prefix, CompletionItemKind.Keyword, offer);
+            case LEXER_COMMAND -> fixed(LEXER_COMMANDS, prefix, CompletionItemKind.Keyword, offer);
+            case OPTIONS -> fixed(OPTIONS, prefix, CompletionItemKind.Property, offer);
+            case PARSER_RULE -> {
+                names(sources, EnumSet.of(Kind.RULE, Kind.TOKEN), prefix, offer);
+                fixed(List.of("EOF"), prefix, CompletionItemKind.Constant, offer);
+            }
+            case LEXER_RULE, TYPE -> names(sources, EnumSet.of(Kind.TOKEN), prefix, offer);
+            case CHANNEL -> {
+                names(sources, EnumSet.of(Kind.CHANNEL), prefix, offer);
+                fixed(List.of("HIDDEN", "DEFAULT_TOKEN_CHANNEL"), prefix, CompletionItemKind.EnumMember, offer);
+            }
+            case MODE -> {
+                names(sources, EnumSet.of(Kind.MODE), prefix, offer);
+                fixed(List.of("DEFAULT_MODE"), prefix, CompletionItemKind.Enum, offer);
+            }
+            case NONE -> {
+            }
+        }
+        ArrayList<Candidate> sorted = new ArrayList<>(best);
+        sorted.sort(BEST_FIRST);
+        ArrayList<CompletionItem> items = new ArrayList<>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            Candidate candidate = sorted.get(i);
+            CompletionItem item = new CompletionItem(candidate.name());
+            item.setKind(candidate.kind());
+            item.setDetail(candidate.detail());
+            item.setSortText(String.format("%04d", i));
+            items.add(item);
+        }
+        return new CompletionList(matches[0] > items.size(), items);
+    }
+
+    private static void names(
+            List<Source> sources,
+            Set<Kind> kinds,
+            String prefix,
+            Consumer<Candidate> offer) {
+        for (Source source : sources) {
+            PrefixIndex index = source.index();
+            for (int i = index.first(prefix); index.matches(i, prefix); i++) {
+                Kind kind = index.kind(i);
+                if (!kinds.contains(kind)) {
+                    continue;
+                }
+                String name = index.name(i);
+                String detail = switch (kind) {
+                    case RULE -> "parser rule";
+                    case TOKEN -> "token";
+                    case CHANNEL -> "channel";
+                    case MODE -> "mode";
+                    case LITERAL -> "literal";
+                };
+                if (source.grammar() != null) {
+                    detail += " from " + source.grammar();
+                }
+                offer.accept(new Candidate(name, itemKind(kind), detail, rank(name, prefix, source)));
+            }
+        }
+    }
+
+    private static void fixed(
+            List<String> names,
+            String prefix,
+            CompletionItemKind kind,
+            Consumer<Candidate> offer) {
+        for (String name : names) {
+            if (name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                offer.accept(new Candidate(name, kind, null, rank(name, prefix, null) + 1));
+            }
+        }
+    }
+
+    private static int rank(String name, String prefix, Source source) {
+        int rank = name.startsWith(prefix) ? 0 : 4;
+        if (source != null && source.grammar() != null) {
+            rank += 2;
+        }
+        return rank;
+    }
+
+    private static CompletionItemKind itemKind(Kind kind) {
+        return switch (kind) {
+            case RULE -> CompletionItemKind.Function;
+            case TOKEN, LITERAL -> CompletionItemKind.Constant;
+            case CHANNEL -> CompletionItemKind.EnumMember;
+            case MODE -> CompletionItemKind.Enum;
+        };
+    }
+
+    private static int skipWhitespace(Rope text, int p) {
+        while (p >= 0 && Character.isWhitespace(text.charAt(p))) {
+            p--;
+        }
+        return p;
+    }
+
+    private static String identifierBefore(Rope text, int p) {
+        int end = skipWhitespace(text, p - 1) + 1;
+        int start = end;
+        while (start > 0 && Character.isJavaIdentifierPart(text.charAt(start - 1))) {
+            start--;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Name of the rule whose colon is at {@code p}, skipping arguments,
+     * returns, locals and options in between.
+     */
+    private static String ruleNameBefore(Rope text, int p) {
+        while (true) {
+            int end = skipWhitespace(text, p - 1);
+            if (end < 0) {
+                return "";
+            }
+            char c = text.charAt(end);
+            if (c == ']' || c == '}') {
+                p = matchingOpen(text, end);
+                continue;
+            }
+            String word = identifierBefore(text, end + 1);
+            if (word.isEmpty()) {
+                return "";
+            }
+            if (!RULE_SCOPE_KEYWORDS.contains(word)) {
+                return word;
+            }
+            p = end + 1 - word.length();
+        }
+    }
+
+    /**
+     * Position of the bracket or brace opening the one closed at {@code p}.
+     */
+    private static int matchingOpen(Rope text, int p) {
+        char close = text.charAt(p);
+        char open = close == '}' ? '{' : '[';
+        int depth = 0;
+        for (int limit = Math.max(-1, p - MAX_SCAN); p > limit; p--) {
+            char c = text.charAt(p);
+            if (c == close) {
+                depth++;
+            } else if (c == open && --depth == 0) {
+                return p;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,51 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.tool.ANTLRMessage;
+import org.antlr.v4.tool.ANTLRToolListener;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+
+public class DiagnosticCollector implements ANTLRToolListener {
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    @Override
+    public void info(String msg) {
+    }
+
+    @Override
+    public void error(ANTLRMessage msg) {
+        diagnostics.add(newDiagnostic(msg, DiagnosticSeverity.Error));
+    }
+
+    @Override
+    public void warning(ANTLRMessage msg) {
+        diagnostics.add(newDiagnostic(msg, DiagnosticSeverity.Warning));
+    }
+
+    private static Diagnostic newDiagnostic(ANTLRMessage msg, DiagnosticSeverity severity) {
+        int lnum = Math.max(msg.line - 1, 0);
+        int character = Math.max(msg.charPosition, 0);
+        Position start = new Position(lnum, character);
+        Position end;
+        Object[] args = msg.getArgs();
+        if (args.length > 0 && args[0] != null) {
+            String text = args[0].toString();
+            end = new Position(lnum, character + text.length());
+        } else {
+            end = start;
+        }
+        Range range = new Range(start, end);
+        String message = msg.getMessageTemplate(true).render();
+        return new Diagnostic(range, message, severity, "antlr4");
+    }
+}
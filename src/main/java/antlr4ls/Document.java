@@ -0,0 +1,111 @@
+package antlr4ls;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+
+public class Document {
+
+    private final String uri;
+    private final int version;
+    private final Rope text;
+    private final boolean open;
+
+    volatile ParsedGrammar parsed;
+    volatile ProcessedGrammar processed;
+
+    // symbols of the version this one was edited from, to reuse unchanged rules
+    private volatile SymbolTable previousSymbols;
+
+    public Document(String uri, int version, Rope text, boolean open) {
+        this.uri = uri;
+        this.version = version;
+        this.text = text;
+        this.open = open;
+    }
+
+    public static Document read(String uri) {
+        Rope text;
+        try {
+            text = Rope.of(Files.readString(toPath(uri)));
+        } catch (IOException | RuntimeException ex) {
+            text = null;
+        }
+        return new Document(uri, 0, text, false);
+    }
+
+    public String uri() {
+        return uri;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Contents of the document, or null if it isn't open and couldn't be read.
+     */
+    public Rope text() {
+        return text;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public String path() {
+        return toPath(uri).toString();
+    }
+
+    /**
+     * Normalized file path of the document, or null for non-file URIs.
+     */
+    public Path file() {
+        return toFile(uri);
+    }
+
+    public static Path toFile(String uri) {
+        try {
+            return toPath(uri).toAbsolutePath().normalize();
+        } catch (IllegalArgumentException | FileSystemNotFoundException ex) {
+            return null;
+        }
+    }
+
+    public Document withChanges(int newVersion, Iterable<TextDocumentContentChangeEvent> changes) {
+        Rope newText = text == null ? Rope.of("") : text;
+        for (var change : changes) {
+            Range range = change.getRange();
+            if (range == null) {
+                newText = Rope.of(change.getText());
+            } else {
+                int start = offsetAt(newText, range.getStart());
+                int end = Math.max(start, offsetAt(newText, range.getEnd()));
+                newText = newText.replace(start, end, change.getText());
+            }
+        }
+        Document document = new Document(uri, newVersion, newText, true);
+        ParsedGrammar current = parsed;
+        document.previousSymbols = current == null ? previousSymbols : current.symbols();
+        return document;
+    }
+
+    SymbolTable previousSymbols() {
+        return previousSymbols;
+    }
+
+    private static int offsetAt(Rope text, Position position) {
+        return text.offsetAt(position.getLine(), position.getCharacter());
+    }
+
+    private static Path toPath(String uri) {
+        return Paths.get(URI.create(uri));
+    }
+}
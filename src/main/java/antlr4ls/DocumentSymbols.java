@@ -0,0 +1,111 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.parse.ANTLRParser;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.antlr.v4.tool.ast.RuleAST;
+import org.eclipse.lsp4j.DocumentSymbol;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SymbolKind;
+
+import antlr4ls.SymbolTable.Kind;
+
+/**
+ * Outline of a grammar: rules, with the lexer rules of a mode nested under
+ * the mode, and the names declared in tokens and channels blocks.
+ */
+public final class DocumentSymbols {
+
+    private DocumentSymbols() {
+    }
+
+    public static List<DocumentSymbol> of(ParsedGrammar parsed) {
+        GrammarRootAST ast = parsed.ast();
+        ArrayList<DocumentSymbol> symbols = new ArrayList<>();
+        if (ast == null) {
+            return symbols;
+        }
+        for (int i = 0; i < ast.getChildCount(); i++) {
+            Tree child = ast.getChild(i);
+            switch (child.getType()) {
+                case ANTLRParser.RULES -> addRules(symbols, ast.tokenStream, child, 0);
+                case ANTLRParser.MODE -> {
+                    Tree name = child.getChild(0);
+                    Range selection = nameRange(name);
+                    ArrayList<DocumentSymbol> rules = new ArrayList<>();
+                    addRules(rules, ast.tokenStream, child, 1);
+                    Position start = new Position(child.getLine() - 1, child.getCharPositionInLine());
+                    Position end = rules.isEmpty() ? selection.getEnd() : rules.getLast().getRange().getEnd();
+                    DocumentSymbol mode = new DocumentSymbol(name.getText(), kind(Kind.MODE), new Range(start, end), selection);
+                    mode.setChildren(rules);
+                    symbols.add(mode);
+                }
+                case ANTLRParser.TOKENS_SPEC -> addNames(symbols, child, Kind.TOKEN);
+                case ANTLRParser.CHANNELS -> addNames(symbols, child, Kind.CHANNEL);
+                default -> {
+                }
+            }
+        }
+        return symbols;
+    }
+
+    public static SymbolKind kind(Kind kind) {
+        return switch (kind) {
+            case RULE -> SymbolKind.Function;
+            case TOKEN -> SymbolKind.Constant;
+            case CHANNEL -> SymbolKind.EnumMember;
+            case MODE -> SymbolKind.Enum;
+            case LITERAL -> SymbolKind.String;
+        };
+    }
+
+    private static void addRules(List<DocumentSymbol> symbols, TokenStream tokens, Tree parent, int from) {
+        for (int i = from; i < parent.getChildCount(); i++) {
+            if (!(parent.getChild(i) instanceof RuleAST rule)) {
+                continue;
+            }
+            Tree name = rule.getChild(0);
+            Range selection = nameRange(name);
+            Range range = selection;
+            if (rule.getTokenStartIndex() >= 0 && rule.getTokenStopIndex() >= rule.getTokenStartIndex()) {
+                Token start = tokens.get(rule.getTokenStartIndex());
+                Token stop = tokens.get(rule.getTokenStopIndex());
+                range = new Range(new Position(start.getLine() - 1, start.getCharPositionInLine()), end(stop));
+            }
+            Kind kind = name.getType() == ANTLRParser.TOKEN_REF ? Kind.TOKEN : Kind.RULE;
+            symbols.add(new DocumentSymbol(name.getText(), kind(kind), range, selection));
+        }
+    }
+
+    private static void addNames(List<DocumentSymbol> symbols, Tree parent, Kind kind) {
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            Tree name = parent.getChild(i);
+            Range range = nameRange(name);
+            symbols.add(new DocumentSymbol(name.getText(), kind(kind), range, range));
+        }
+    }
+
+    private static Range nameRange(Tree name) {
+        int line = name.getLine() - 1;
+        int character = name.getCharPositionInLine();
+        return new Range(new Position(line, character), new Position(line, character + name.getText().length()));
+    }
+
+    private static Position end(Token token) {
+        // the rule ends with ';', but be safe with multi-line tokens
+        String text = token.getText();
+        int newline = text.lastIndexOf('\n');
+        int line = token.getLine() - 1;
+        if (newline < 0) {
+            return new Position(line, token.getCharPositionInLine() + text.length());
+        }
+        line += (int) text.chars().filter(c -> c == '\n').count();
+        return new Position(line, text.length() - newline - 1);
+    }
+}
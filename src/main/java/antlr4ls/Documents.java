@@ -0,0 +1,247 @@
+package antlr4ls;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+
+/**
+ * Documents by URI with their parsed and processed grammars.
+ *
+ * Open documents are pinned. Documents read from disk for a request or a
+ * workspace lint are kept in LRU order and evicted once the estimated size
+ * of their grammars exceeds the budget; requests for other files go through
+ * the symbol tables of the workspace index and don't need them.
+ */
+public class Documents {
+
+    public record Stats(
+        long parseHits,
+        long parseMisses,
+        long processHits,
+        long processMisses,
+        int cachedDocuments,
+        long cachedBytes,
+        long budgetBytes,
+        long evictions) {
+    }
+
+    // heap per character of grammar text, measured on generated grammars
+    private static final int PARSED_BYTES_PER_CHAR = 80;
+    private static final int PROCESSED_BYTES_PER_CHAR = 40;
+
+    private final ConcurrentHashMap<String, Document> documents = new ConcurrentHashMap<>();
+    private final BiConsumer<Document, ParsedGrammar> onParse;
+    private final LongAdder parseHits = new LongAdder();
+    private final LongAdder parseMisses = new LongAdder();
+    private final LongAdder processHits = new LongAdder();
+    private final LongAdder processMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // estimated size of each unpinned document, least recently used first
+    private final LinkedHashMap<String, Long> unpinned = new LinkedHashMap<>(16, 0.75f, true);
+    private long unpinnedBytes;
+    private volatile long budgetBytes = Long.MAX_VALUE;
+
+    public Documents() {
+        this((document, parsed) -> {});
+    }
+
+    public Documents(BiConsumer<Document, ParsedGrammar> onParse) {
+        this.onParse = onParse;
+    }
+
+    public void open(String uri, int version, String text) {
+        documents.put(uri, new Document(uri, version, Rope.of(text), true));
+        untrack(uri);
+    }
+
+    /**
+     * Sets the estimated heap the grammars of documents that aren't open may
+     * use before the least recently used ones are dropped.
+     */
+    public void setBudget(long bytes) {
+        budgetBytes = bytes;
+        evict(null);
+    }
+
+    public Document change(String uri, int version, List<TextDocumentContentChangeEvent> changes) {
+        return documents.compute(uri, (key, document) -> (document == null ? Document.read(key) : document)
+            .withChanges(version, changes));
+    }
+
+    /**
+     * Caches the text of a document that isn't open, just read from disk by
+     * someone else. It is evicted like the documents read by {@link #get}.
+     */
+    public void cache(String uri, Rope text) {
+        Document document = documents.compute(uri, (key, current) -> current != null && current.isOpen()
+            ? current
+            : new Document(key, 0, text, false));
+        if (!document.isOpen()) {
+            untrack(uri);
+            track(document);
+        }
+    }
+
+    public void invalidate(String uri) {
+        documents.computeIfPresent(uri, (key, document) -> document.isOpen() ? document : null);
+        if (getIfOpen(uri) == null) {
+            untrack(uri);
+        }
+    }
+
+    public void close(String uri) {
+        documents.remove(uri);
+        untrack(uri);
+    }
+
+    public Document getIfOpen(String uri) {
+        Document document = documents.get(uri);
+        return document != null && document.isOpen() ? document : null;
+    }
+
+    public Document get(String uri) {
+        Document document = documents.computeIfAbsent(uri, Document::read);
+        if (!document.isOpen()) {
+            synchronized (unpinned) {
+                // refreshes the LRU order
+                unpinned.get(uri);
+            }
+        }
+        return document;
+    }
+
+    public boolean isCurrent(Document document) {
+        return documents.get(document.uri()) == document;
+    }
+
+    public ParsedGrammar parse(String uri) {
+        return parse(get(uri));
+    }
+
+    public ParsedGrammar parse(Document document) {
+        ParsedGrammar parsed = document.parsed;
+        if (parsed != null) {
+            parseHits.increment();
+            return parsed;
+        }
+        synchronized (document) {
+            parsed = document.parsed;
+            if (parsed == null) {
+                parseMisses.increment();
+                parsed = ParsedGrammar.parse(document.path(), document.text(), document.previousSymbols());
+                document.parsed = parsed;
+                onParse.accept(document, parsed);
+                track(document);
+            } else {
+                parseHits.increment();
+            }
+        }
+        return parsed;
+    }
+
+    public ProcessedGrammar process(Document document) {
+        ProcessedGrammar processed = document.processed;
+        if (processed != null) {
+            processHits.increment();
+            return processed;
+        }
+        ParsedGrammar parsed = parse(document);
+        synchronized (document) {
+            processed = document.processed;
+            if (processed == null) {
+                processMisses.increment();
+                processed = ProcessedGrammar.process(parsed, document.path());
+                document.processed = processed;
+                track(document);
+            } else {
+                processHits.increment();
+            }
+        }
+        return processed;
+    }
+
+    public Stats stats() {
+        int cachedDocuments;
+        long cachedBytes;
+        synchronized (unpinned) {
+            cachedDocuments = unpinned.size();
+            cachedBytes = unpinnedBytes;
+        }
+        return new Stats(
+            parseHits.sum(),
+            parseMisses.sum(),
+            processHits.sum(),
+            processMisses.sum(),
+            cachedDocuments,
+            cachedBytes,
+            budgetBytes,
+            evictions.sum());
+    }
+
+    private static long estimateBytes(Document document) {
+        long chars = document.text() == null ? 0 : document.text().length();
+        long bytes = 0;
+        if (document.parsed != null) {
+            bytes += PARSED_BYTES_PER_CHAR * chars;
+        }
+        if (document.processed != null) {
+            bytes += PROCESSED_BYTES_PER_CHAR * chars;
+        }
+        return bytes;
+    }
+
+    private void track(Document document) {
+        if (document.isOpen() || !isCurrent(document)) {
+            return;
+        }
+        synchronized (unpinned) {
+            Long previous = unpinned.put(document.uri(), estimateBytes(document));
+            unpinnedBytes += unpinned.get(document.uri()) - (previous == null ? 0 : previous);
+        }
+        evict(document.uri());
+    }
+
+    private void untrack(String uri) {
+        synchronized (unpinned) {
+            Long previous = unpinned.remove(uri);
+            if (previous != null) {
+                unpinnedBytes -= previous;
+            }
+        }
+    }
+
+    /**
+     * Drops least recently used documents until the budget is met, except
+     * {@code keep} which is in use by the caller.
+     */
+    private void evict(String keep) {
+        while (true) {
+            String uri;
+            synchronized (unpinned) {
+                if (unpinnedBytes <= budgetBytes) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Long>> eldest = unpinned.entrySet().iterator();
+                if (!eldest.hasNext()) {
+                    return;
+                }
+                Map.Entry<String, Long> entry = eldest.next();
+                uri = entry.getKey();
+                if (uri.equals(keep)) {
+                    return;
+                }
+                unpinnedBytes -= entry.getValue();
+                eldest.remove();
+            }
+            documents.computeIfPresent(uri, (key, document) -> document.isOpen() ? document : null);
+            evictions.increment();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package antlr4ls;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR events of the server, under "antlr4ls" in JDK Mission Control. They
+ * cost next to nothing unless a recording is running, e.g. started with
+ * {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}.
+ */
+final class Events {
+
+    private Events() {
+    }
+
+    @Name("antlr4ls.Request")
+    @Label("Request")
+    @Category("antlr4ls")
+    @Description("An LSP request handled on the request executor")
+    static final class Request extends Event {
+
+        @Label("Method")
+        String method;
+
+        @Label("Queued Nanos")
+        long queuedNanos;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("antlr4ls.Lint")
+    @Label("Lint")
+    @Category("antlr4ls")
+    @Description("One phase of linting a grammar: syntax or semantic")
+    static final class Lint extends Event {
+
+        @Label("URI")
+        String uri;
+
+        @Label("Version")
+        int version;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Characters")
+        int characters;
+    }
+}
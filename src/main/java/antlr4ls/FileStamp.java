@@ -0,0 +1,40 @@
+package antlr4ls;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Size, modification time and content hash of a file at the time it was
+ * indexed.
+ */
+public record FileStamp(long size, long modified, long hash) {
+
+    public static FileStamp of(Path path, byte[] content) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis(), hash(content));
+    }
+
+    /**
+     * True if size and modification time still match, without reading the
+     * file.
+     */
+    public boolean isCurrent(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public static long hash(byte[] content) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : content) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
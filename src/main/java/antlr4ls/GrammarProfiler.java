@@ -0,0 +1,247 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.LexerInterpreter;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.ParserInterpreter;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNDeserializer;
+import org.antlr.v4.runtime.atn.ATNSerializer;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.DecisionState;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.tool.Grammar;
+import org.antlr.v4.tool.LeftRecursiveRule;
+import org.antlr.v4.tool.LexerGrammar;
+import org.antlr.v4.tool.Rule;
+import org.antlr.v4.tool.ast.GrammarAST;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+/**
+ * Parses sample input with the interpreters of a processed grammar and
+ * reports the decisions that took longest to predict.
+ *
+ * The runtime ATN of each grammar is deserialized once and shared by all runs
+ * until the grammar is garbage collected, which happens when its document
+ * changes.
+ */
+public class GrammarProfiler {
+
+    public record Decision(
+        int decision,
+        String rule,
+        Range range,
+        double predictionMillis,
+        long invocations,
+        long fullContextFallbacks,
+        long ambiguities,
+        long contextSensitivities,
+        long errors,
+        long maxLookahead) {
+
+        public String describe() {
+            return String.format(
+                "decision %d in rule %s: %.2f ms predicting over %d invocations,"
+                    + " %d full-context fallbacks, %d ambiguities, max lookahead %d",
+                decision, rule, predictionMillis, invocations, fullContextFallbacks, ambiguities, maxLookahead);
+        }
+    }
+
+    public record Result(String startRule, int tokens, double parseMillis, boolean timedOut, List<Decision> decisions) {
+    }
+
+    private record WithVocab(LexerGrammar lexer, Grammar parser) {
+    }
+
+    private final Map<Grammar, ATN> atns = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<GrammarRootAST, WithVocab> withVocab = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * The parser grammar processed with the token types of {@code lexer}.
+     * Linting can't build its ATN without the .tokens file of its tokenVocab.
+     */
+    public Grammar withVocab(ParsedGrammar parsed, String path, LexerGrammar lexer) {
+        WithVocab cached = withVocab.get(parsed.ast());
+        if (cached != null && cached.lexer() == lexer) {
+            return cached.parser();
+        }
+        Grammar parser = ProcessedGrammar.process(parsed, path, lexer).grammar();
+        withVocab.put(parsed.ast(), new WithVocab(lexer, parser));
+        return parser;
+    }
+
+    /**
+     * @param lexer the lexer grammar providing the tokens, the implicit lexer
+     *     for a combined grammar
+     * @param symbols symbols of the parsed {@code parser} grammar, for the
+     *     position of left recursive rules which ANTLR rewrites
+     * @param limit how many decisions to report, most expensive first
+     */
+    public Result profile(
+            Grammar parser,
+            LexerGrammar lexer,
+            SymbolTable symbols,
+            String input,
+            String startRule,
+            long timeoutMillis,
+            int limit,
+            CancelChecker cancelChecker) {
+        Rule start = startRule == null ? parser.getRule(0) : parser.getRule(startRule);
+        if (start == null) {
+            throw new IllegalArgumentException("No rule " + (startRule == null ? "to start from" : startRule));
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        boolean timedOut = false;
+        long startTime = System.nanoTime();
+
+        ArrayList<String> channelNames = new ArrayList<>(List.of("DEFAULT_TOKEN_CHANNEL", "HIDDEN"));
+        channelNames.addAll(lexer.channelValueToNameList);
+        LexerInterpreter lexerInterpreter = new LexerInterpreter(
+            lexer.fileName,
+            lexer.getVocabulary(),
+            Arrays.asList(lexer.getRuleNames()),
+            channelNames,
+            lexer.modes.keySet(),
+            atn(lexer),
+            CharStreams.fromString(input));
+        lexerInterpreter.removeErrorListeners();
+        ArrayList<Token> tokens = new ArrayList<>();
+        while (true) {
+            if (System.nanoTime() > deadline) {
+                timedOut = true;
+                break;
+            }
+            cancelChecker.checkCanceled();
+            Token token = lexerInterpreter.nextToken();
+            if (lexer != parser.getImplicitLexer() && token.getType() != Token.EOF) {
+                // a separate lexer numbers its tokens on its own, match them up by name
+                CommonToken mapped = new CommonToken(token);
+                mapped.setType(parser.getTokenType(lexer.getVocabulary().getSymbolicName(token.getType())));
+                token = mapped;
+            }
+            tokens.add(token);
+            if (token.getType() == Token.EOF) {
+                break;
+            }
+        }
+
+        ParserInterpreter parserInterpreter = new ParserInterpreter(
+            parser.fileName,
+            parser.getVocabulary(),
+            Arrays.asList(parser.getRuleNames()),
+            atn(parser),
+            new CommonTokenStream(new ListTokenSource(tokens)));
+        parserInterpreter.removeErrorListeners();
+        parserInterpreter.setProfile(true);
+        parserInterpreter.addParseListener(new ParseTreeListener() {
+
+            private void check() {
+                cancelChecker.checkCanceled();
+                if (System.nanoTime() > deadline) {
+                    throw new ParseCancellationException("Profiling timed out");
+                }
+            }
+
+            @Override
+            public void visitTerminal(TerminalNode node) {
+                check();
+            }
+
+            @Override
+            public void visitErrorNode(ErrorNode node) {
+            }
+
+            @Override
+            public void enterEveryRule(ParserRuleContext ctx) {
+                check();
+            }
+
+            @Override
+            public void exitEveryRule(ParserRuleContext ctx) {
+            }
+        });
+        if (!timedOut) {
+            try {
+                parserInterpreter.parse(start.index);
+            } catch (ParseCancellationException ex) {
+                timedOut = true;
+            }
+        }
+        double parseMillis = (System.nanoTime() - startTime) / 1e6;
+
+        Map<Integer, GrammarAST> decisionNodes = new HashMap<>();
+        collectDecisions(parser.ast, decisionNodes);
+        ATN atn = atn(parser);
+        List<Decision> decisions = Arrays.stream(parserInterpreter.getParseInfo().getDecisionInfo())
+            .filter(info -> info.invocations > 0)
+            .sorted(Comparator.comparingLong((DecisionInfo info) -> info.timeInPrediction).reversed())
+            .limit(limit)
+            .map(info -> {
+                Rule rule = parser.getRule(atn.decisionToState.get(info.decision).ruleIndex);
+                return new Decision(
+                    info.decision,
+                    rule.name,
+                    range(rule, decisionNodes.get(info.decision), symbols),
+                    info.timeInPrediction / 1e6,
+                    info.invocations,
+                    info.LL_Fallback,
+                    info.ambiguities.size(),
+                    info.contextSensitivities.size(),
+                    info.errors.size(),
+                    Math.max(info.SLL_MaxLook, info.LL_MaxLook));
+            })
+            .toList();
+        return new Result(start.name, tokens.size(), parseMillis, timedOut, decisions);
+    }
+
+    private ATN atn(Grammar grammar) {
+        // the tool's ATN carries extra state; the interpreters want the runtime form
+        return atns.computeIfAbsent(grammar, g -> new ATNDeserializer().deserialize(
+            ATNSerializer.getSerialized(g.atn).toArray()));
+    }
+
+    private static void collectDecisions(Tree tree, Map<Integer, GrammarAST> decisionNodes) {
+        if (tree instanceof GrammarAST node && node.atnState instanceof DecisionState state && state.decision >= 0) {
+            decisionNodes.putIfAbsent(state.decision, node);
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectDecisions(tree.getChild(i), decisionNodes);
+        }
+    }
+
+    private static Range range(Rule rule, GrammarAST node, SymbolTable symbols) {
+        // left recursive rules are rewritten, their nodes don't point into the file
+        if (node != null && !(rule instanceof LeftRecursiveRule)) {
+            int line = node.getLine() - 1;
+            int character = node.getCharPositionInLine();
+            return new Range(new Position(line, character), new Position(line, character + node.getText().length()));
+        }
+        SymbolTable.Symbol symbol = symbols.lookup(SymbolTable.Kind.RULE, rule.name);
+        if (symbol == null || symbol.declarationCount() == 0) {
+            return new Range(new Position(0, 0), new Position(0, 0));
+        }
+        int line = symbol.declarationLine(0);
+        int character = symbol.declarationColumn(0);
+        return new Range(new Position(line, character), new Position(line, character + rule.name.length()));
+    }
+}
@@ -0,0 +1,164 @@
+package antlr4ls;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary snapshot of the {@link WorkspaceIndex} so that a restart doesn't
+ * have to parse every grammar before definition or references work.
+ *
+ * Entries carry the {@link FileStamp} of the file they were built from; the
+ * caller is expected to revalidate them. Entries from editor buffers are not
+ * stored, callers pass {@link WorkspaceIndex#diskEntries()} instead. The file
+ * is memory-mapped on load and replaced atomically on save.
+ */
+public class IndexCache {
+
+    private static final int MAGIC = 0x41344C53; // A4LS
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path file;
+
+    public IndexCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Cache for a set of workspace folders, so that several workspaces can
+     * share a cache directory.
+     */
+    public static IndexCache forWorkspace(Path directory, Collection<Path> folders) {
+        String key = String.join("\n", folders.stream().map(Path::toString).sorted().toList());
+        long hash = FileStamp.hash(key.getBytes(StandardCharsets.UTF_8));
+        return new IndexCache(directory.resolve("index-" + Long.toHexString(hash) + ".bin"));
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Reads all entries, or returns an empty list if the cache doesn't exist or
+     * was written by another format version. A corrupt cache fails with an
+     * IOException before anything large is allocated.
+     */
+    public List<WorkspaceIndex.Entry> load() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            return List.of();
+        }
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return List.of();
+        }
+        ArrayList<WorkspaceIndex.Entry> entries;
+        try {
+            int count = readLength(buffer, 1);
+            entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(readEntry(buffer));
+            }
+        } catch (RuntimeException ex) {
+            // truncated or corrupt, the revalidation rebuilds it
+            throw new IOException("Corrupt index cache " + file, ex);
+        }
+        return entries;
+    }
+
+    public void save(Collection<WorkspaceIndex.Entry> entries) throws IOException {
+        List<WorkspaceIndex.Entry> stamped = entries.stream()
+            .filter(entry -> entry.stamp() != null)
+            .toList();
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(stamped.size());
+                for (WorkspaceIndex.Entry entry : stamped) {
+                    writeEntry(out, entry);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, WorkspaceIndex.Entry entry) throws IOException {
+        writeString(out, entry.path().toString());
+        out.writeLong(entry.stamp().size());
+        out.writeLong(entry.stamp().modified());
+        out.writeLong(entry.stamp().hash());
+        writeString(out, entry.name() == null ? "" : entry.name());
+        out.writeInt(entry.grammarType());
+        out.writeInt(entry.imports().size());
+        for (String imported : entry.imports()) {
+            writeString(out, imported);
+        }
+        writeString(out, entry.tokenVocab() == null ? "" : entry.tokenVocab());
+        entry.symbols().write(out);
+    }
+
+    private static WorkspaceIndex.Entry readEntry(ByteBuffer buffer) {
+        Path path = Path.of(readString(buffer));
+        FileStamp stamp = new FileStamp(buffer.getLong(), buffer.getLong(), buffer.getLong());
+        String name = readString(buffer);
+        int grammarType = buffer.getInt();
+        int importCount = readLength(buffer, 4);
+        ArrayList<String> imports = new ArrayList<>(importCount);
+        for (int i = 0; i < importCount; i++) {
+            imports.add(readString(buffer));
+        }
+        String tokenVocab = readString(buffer);
+        return new WorkspaceIndex.Entry(
+            path,
+            name.isEmpty() ? null : name,
+            grammarType,
+            List.copyOf(imports),
+            tokenVocab.isEmpty() ? null : tokenVocab,
+            SymbolTable.read(buffer),
+            stamp
+        );
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the length of an array whose elements take at least
+     * {@code elementBytes} each, rejecting lengths that can't fit into the
+     * rest of the buffer.
+     */
+    static int readLength(ByteBuffer buffer, int elementBytes) {
+        int length = buffer.getInt();
+        if (length < 0 || (long) length * elementBytes > buffer.remaining()) {
+            throw new IllegalStateException("length " + length + " at " + (buffer.position() - 4));
+        }
+        return length;
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readLength(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package antlr4ls;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs lint jobs off the message thread.
+ *
+ * Each URI has at most one pending job: scheduling a new one cancels the
+ * previous job if it hasn't started yet, so a burst of edits results in a
+ * single run once the debounce delay has passed.
+ */
+public class LintScheduler implements AutoCloseable {
+
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+    private final ConcurrentHashMap<String, Job> pending = new ConcurrentHashMap<>();
+
+    private static final class Job {
+
+        private volatile Future<?> future;
+        private volatile boolean started;
+    }
+
+    public LintScheduler(Executor executor) {
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("antlr4ls-lint-timer"));
+        this.executor = executor;
+    }
+
+    public synchronized void schedule(String uri, long delayMillis, Runnable task) {
+        Job job = new Job();
+        Job previous = pending.put(uri, job);
+        if (previous != null && !previous.started && previous.future != null) {
+            previous.future.cancel(false);
+        }
+        Runnable run = () -> {
+            if (pending.get(uri) != job) {
+                return;
+            }
+            job.started = true;
+            try {
+                task.run();
+            } finally {
+                pending.remove(uri, job);
+            }
+        };
+        job.future = timer.schedule(() -> executor.execute(run), Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void cancel(String uri) {
+        Job job = pending.remove(uri);
+        if (job != null && !job.started && job.future != null) {
+            job.future.cancel(false);
+        }
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
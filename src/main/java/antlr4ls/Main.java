@@ -1,6 +1,9 @@
-
 package antlr4ls;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -10,9 +13,31 @@ import org.eclipse.lsp4j.services.LanguageClient;
 
 public class Main {
 
-    public static void main(String[] args) throws InterruptedException, ExecutionException {
+    public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+        List<String> arguments = Arrays.asList(args);
+        if (args.length > 0 && args[0].equals("lint")) {
+            System.exit(BatchLint.main(arguments.subList(1, args.length), System.out, System.err));
+        }
+        if (args.length > 0 && args[0].equals("replay")) {
+            System.exit(SessionReplay.main(arguments.subList(1, args.length), System.out, System.err));
+        }
         Antlr4Server server = new Antlr4Server();
-        Launcher<LanguageClient> launcher = LSPLauncher.createServerLauncher(server, System.in, System.out);
+        var builder = new LSPLauncher.Builder<LanguageClient>()
+            .setLocalService(server)
+            .setRemoteInterface(LanguageClient.class)
+            .setInput(System.in)
+            .setOutput(System.out);
+        // --record <file> writes the messages of the client for antlr4ls replay
+        int record = arguments.indexOf("--record");
+        if (record >= 0) {
+            if (record + 1 == args.length) {
+                System.err.println("usage: antlr4ls [--record <file>]");
+                System.exit(2);
+            }
+            SessionRecorder recorder = new SessionRecorder(Path.of(args[record + 1]));
+            builder.wrapMessages(recorder::wrap);
+        }
+        Launcher<LanguageClient> launcher = builder.create();
         server.connect(launcher.getRemoteProxy());
         Future<Void> listen = launcher.startListening();
         listen.get();
@@ -0,0 +1,153 @@
+package antlr4ls;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms by name: LSP methods, lint phases and queue waits.
+ *
+ * Each histogram counts microseconds in log-linear buckets, four per power
+ * of two, so recording is a few atomic increments without allocation and
+ * percentiles are within 25% of the recorded value. Request handlers also
+ * record the bytes their thread allocated.
+ */
+public class Metrics {
+
+    public record Latency(
+        long count,
+        double meanMillis,
+        double p50Millis,
+        double p90Millis,
+        double p99Millis,
+        double maxMillis,
+        long meanAllocatedBytes) {
+    }
+
+    private static final int SUB_BUCKETS = 4;
+    // up to 2^40 microseconds, longer durations go into the last bucket
+    private static final int BUCKETS = SUB_BUCKETS + 38 * SUB_BUCKETS;
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private static final class Histogram {
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder allocations = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(bucket(Math.max(nanos, 0) / 1000));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Latency snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            double max = maxNanos.get() / 1e6;
+            long allocationCount = allocations.sum();
+            return new Latency(
+                total,
+                total == 0 ? 0 : totalNanos.sum() / 1e6 / count.sum(),
+                Math.min(percentile(counts, total, 0.50), max),
+                Math.min(percentile(counts, total, 0.90), max),
+                Math.min(percentile(counts, total, 0.99), max),
+                max,
+                allocationCount == 0 ? 0 : allocatedBytes.sum() / allocationCount);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public void record(String name, long nanos) {
+        histograms.computeIfAbsent(name, key -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * Records {@code bytes} allocated for one {@code name}, from two calls of
+     * {@link #allocatedBytes()} on the same thread.
+     */
+    public void recordAllocation(String name, long bytes) {
+        if (bytes < 0) {
+            return;
+        }
+        Histogram histogram = histograms.computeIfAbsent(name, key -> new Histogram());
+        histogram.allocations.increment();
+        histogram.allocatedBytes.add(bytes);
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, -1 if the JVM doesn't
+     * track it.
+     */
+    public static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * Latencies recorded so far, by name.
+     */
+    public Map<String, Latency> latencies() {
+        TreeMap<String, Latency> latencies = new TreeMap<>();
+        histograms.forEach((name, histogram) -> latencies.put(name, histogram.snapshot()));
+        return latencies;
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - 2;
+        int bucket = SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >> shift) & (SUB_BUCKETS - 1));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Largest value in microseconds that falls into {@code bucket}.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    private static double percentile(long[] counts, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i) / 1e3;
+            }
+        }
+        return upperBound(counts.length - 1) / 1e3;
+    }
+}
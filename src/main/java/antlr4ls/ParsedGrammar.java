@@ -0,0 +1,40 @@
+package antlr4ls;
+
+import java.util.List;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.v4.Tool;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.eclipse.lsp4j.Diagnostic;
+
+public record ParsedGrammar(
+    GrammarRootAST ast,
+    PositionIndex positions,
+    SymbolTable symbols,
+    List<Diagnostic> diagnostics) {
+
+    public static ParsedGrammar parse(String path, Rope text) {
+        return parse(path, text, null);
+    }
+
+    public static ParsedGrammar parse(String path, Rope text, SymbolTable previousSymbols) {
+        DiagnosticCollector collector = new DiagnosticCollector();
+        Tool antlr = new Tool();
+        antlr.addListener(collector);
+        GrammarRootAST ast;
+        if (text == null) {
+            // let the tool report why the file can't be read
+            ast = antlr.parseGrammar(path);
+        } else {
+            ANTLRStringStream input = new ANTLRStringStream(text.toString());
+            input.name = path;
+            ast = antlr.parse(path, input);
+        }
+        return new ParsedGrammar(
+            ast,
+            PositionIndex.build(ast),
+            SymbolTable.build(ast, previousSymbols),
+            List.copyOf(collector.diagnostics())
+        );
+    }
+}
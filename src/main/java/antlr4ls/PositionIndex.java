@@ -0,0 +1,168 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.parse.GrammarTreeVisitor;
+import org.antlr.v4.tool.ast.GrammarAST;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+
+/**
+ * Maps positions to the navigable AST node under them.
+ *
+ * Built once per parse from a single tree walk. Nodes can overlap (a BLOCK
+ * starts at the same column as its first element), in which case the node
+ * visited last wins. The overlaps are resolved up front into disjoint
+ * segments sorted by line and column, so a lookup is a binary search.
+ */
+public class PositionIndex {
+
+    private static final PositionIndex EMPTY = new PositionIndex(new int[0], new int[0], new int[0], new Tree[0]);
+
+    private final int[] lines;
+    private final int[] starts;
+    private final int[] ends;
+    private final Tree[] nodes;
+
+    private record Entry(int order, int line, int start, int end, Tree node) {
+    }
+
+    private PositionIndex(int[] lines, int[] starts, int[] ends, Tree[] nodes) {
+        this.lines = lines;
+        this.starts = starts;
+        this.ends = ends;
+        this.nodes = nodes;
+    }
+
+    public static PositionIndex build(GrammarRootAST rootAST) {
+        if (rootAST == null) {
+            return EMPTY;
+        }
+        List<Entry> entries = collect(rootAST);
+        entries.sort(Comparator.comparingInt(Entry::line).thenComparingInt(Entry::start));
+
+        int capacity = entries.size() * 2;
+        int[] lines = new int[capacity];
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        Tree[] nodes = new Tree[capacity];
+        int size = 0;
+
+        int i = 0;
+        while (i < entries.size()) {
+            int line = entries.get(i).line();
+            int j = i;
+            while (j < entries.size() && entries.get(j).line() == line) {
+                j++;
+            }
+            List<Entry> group = entries.subList(i, j);
+            int[] points = new int[group.size() * 2];
+            for (int k = 0; k < group.size(); k++) {
+                points[2 * k] = group.get(k).start();
+                points[2 * k + 1] = group.get(k).end();
+            }
+            Arrays.sort(points);
+
+            PriorityQueue<Entry> active = new PriorityQueue<>(Comparator.comparingInt(Entry::order).reversed());
+            int next = 0;
+            for (int p = 0; p < points.length - 1; p++) {
+                int from = points[p];
+                int to = points[p + 1];
+                if (from == to) {
+                    continue;
+                }
+                while (next < group.size() && group.get(next).start() <= from) {
+                    active.add(group.get(next));
+                    next++;
+                }
+                while (!active.isEmpty() && active.peek().end() <= from) {
+                    active.poll();
+                }
+                if (active.isEmpty()) {
+                    continue;
+                }
+                Tree node = active.peek().node();
+                if (size > 0 && lines[size - 1] == line && ends[size - 1] == from && nodes[size - 1] == node) {
+                    ends[size - 1] = to;
+                    continue;
+                }
+                if (size == capacity) {
+                    capacity *= 2;
+                    lines = Arrays.copyOf(lines, capacity);
+                    starts = Arrays.copyOf(starts, capacity);
+                    ends = Arrays.copyOf(ends, capacity);
+                    nodes = Arrays.copyOf(nodes, capacity);
+                }
+                lines[size] = line;
+                starts[size] = from;
+                ends[size] = to;
+                nodes[size] = node;
+                size++;
+            }
+            i = j;
+        }
+        return new PositionIndex(
+            Arrays.copyOf(lines, size),
+            Arrays.copyOf(starts, size),
+            Arrays.copyOf(ends, size),
+            Arrays.copyOf(nodes, size)
+        );
+    }
+
+    public Tree find(int line, int character) {
+        int low = 0;
+        int high = lines.length - 1;
+        int match = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lines[mid] < line || (lines[mid] == line && starts[mid] <= character)) {
+                match = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (match < 0 || lines[match] != line || character >= ends[match]) {
+            return null;
+        }
+        return nodes[match];
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    private static List<Entry> collect(GrammarRootAST rootAST) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        GrammarTreeVisitor grammarTreeVisitor = new GrammarTreeVisitor() {
+
+            private void add(Tree tree) {
+                int start = tree.getCharPositionInLine();
+                // positions are inclusive of the character right after the node
+                int end = start + tree.getText().length() + 1;
+                entries.add(new Entry(entries.size(), tree.getLine() - 1, start, end, tree));
+            }
+
+            @Override
+            protected void enterRule(GrammarAST tree) {
+                add(tree);
+            }
+
+            @Override
+            protected void enterElement(GrammarAST tree) {
+                add(tree);
+            }
+
+            @Override
+            protected void enterLexerRule(GrammarAST tree) {
+                add(tree.getChild(0));
+            }
+        };
+        grammarTreeVisitor.visitGrammar(rootAST);
+        return entries;
+    }
+}
@@ -0,0 +1,146 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import antlr4ls.SymbolTable.Kind;
+
+/**
+ * Declared names of a symbol table sorted case-insensitively, so that all
+ * names starting with a prefix are found with one binary search.
+ *
+ * An index for an edited grammar is derived from the index of the previous
+ * version: names that are still declared keep their order and only the added
+ * names are sorted and merged in.
+ */
+public final class PrefixIndex {
+
+    private record Name(String name, Kind kind) {
+    }
+
+    private static final Comparator<Name> ORDER = Comparator
+        .comparing(Name::name, String.CASE_INSENSITIVE_ORDER)
+        .thenComparing(Name::name)
+        .thenComparing(Name::kind);
+
+    private static final Kind[] INDEXED = {Kind.RULE, Kind.TOKEN, Kind.CHANNEL, Kind.MODE};
+
+    private static final PrefixIndex EMPTY = new PrefixIndex(new String[0], new Kind[0]);
+
+    private final String[] names;
+    private final Kind[] kinds;
+
+    private PrefixIndex(String[] names, Kind[] kinds) {
+        this.names = names;
+        this.kinds = kinds;
+    }
+
+    public static PrefixIndex of(SymbolTable symbols) {
+        return update(EMPTY, symbols);
+    }
+
+    public static PrefixIndex update(PrefixIndex previous, SymbolTable symbols) {
+        ArrayList<Name> added = new ArrayList<>();
+        for (Kind kind : INDEXED) {
+            for (SymbolTable.Symbol symbol : symbols.symbols(kind)) {
+                if (symbol.declarationCount() > 0 && previous.indexOf(symbol.name(), kind) < 0) {
+                    added.add(new Name(symbol.name(), kind));
+                }
+            }
+        }
+        added.sort(ORDER);
+
+        int capacity = previous.names.length + added.size();
+        String[] names = new String[capacity];
+        Kind[] kinds = new Kind[capacity];
+        int size = 0;
+        int next = 0;
+        for (int i = 0; i < previous.names.length; i++) {
+            SymbolTable.Symbol symbol = symbols.lookup(previous.kinds[i], previous.names[i]);
+            if (symbol == null || symbol.declarationCount() == 0) {
+                continue;
+            }
+            Name kept = new Name(previous.names[i], previous.kinds[i]);
+            while (next < added.size() && ORDER.compare(added.get(next), kept) < 0) {
+                names[size] = added.get(next).name();
+                kinds[size] = added.get(next).kind();
+                size++;
+                next++;
+            }
+            names[size] = kept.name();
+            kinds[size] = kept.kind();
+            size++;
+        }
+        for (; next < added.size(); next++) {
+            names[size] = added.get(next).name();
+            kinds[size] = added.get(next).kind();
+            size++;
+        }
+        return new PrefixIndex(Arrays.copyOf(names, size), Arrays.copyOf(kinds, size));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    public Kind kind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * Index of the first name that starts with {@code prefix}, ignoring case.
+     * Matching names follow it contiguously, see {@link #matches}.
+     */
+    public int first(String prefix) {
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(names[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean matches(int index, String prefix) {
+        return index < names.length && names[index].regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * All names starting with {@code prefix} in index order.
+     */
+    public List<String> withPrefix(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = first(prefix); matches(i, prefix); i++) {
+            result.add(names[i]);
+        }
+        return result;
+    }
+
+    private int indexOf(String name, Kind kind) {
+        Name key = new Name(name, kind);
+        int low = 0;
+        int high = names.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = ORDER.compare(new Name(names[mid], kinds[mid]), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,57 @@
+package antlr4ls;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.antlr.v4.Tool;
+import org.antlr.v4.tool.Grammar;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+
+public record ProcessedGrammar(Grammar grammar, List<Diagnostic> diagnostics) {
+
+    public static ProcessedGrammar process(ParsedGrammar parsed, String path) {
+        return process(parsed, path, null);
+    }
+
+    /**
+     * @param vocab grammar to take the token types from instead of the
+     *     tokenVocab option, which needs a generated .tokens file
+     */
+    public static ProcessedGrammar process(ParsedGrammar parsed, String path, Grammar vocab) {
+        ArrayList<Diagnostic> diagnostics = new ArrayList<>(parsed.diagnostics());
+        if (parsed.ast() == null) {
+            return new ProcessedGrammar(null, diagnostics);
+        }
+        DiagnosticCollector collector = new DiagnosticCollector();
+        Tool antlr = new Tool();
+        antlr.addListener(collector);
+        Grammar grammar = null;
+        try {
+            // process() transforms the tree in place; keep the cached AST intact for navigation
+            GrammarRootAST ast = (GrammarRootAST) parsed.ast().dupTree();
+            if (vocab != null) {
+                // same as -DtokenVocab= on the command line
+                ast.cmdLineOptions = new HashMap<>();
+                ast.cmdLineOptions.put("tokenVocab", null);
+            }
+            grammar = antlr.createGrammar(ast);
+            grammar.fileName = path;
+            if (vocab != null) {
+                grammar.importVocab(vocab);
+            }
+            antlr.process(grammar, false);
+        } catch (Exception ex) {
+            // the tool gave up, say so rather than showing partial results as complete
+            Range start = new Range(new Position(0, 0), new Position(0, 0));
+            collector.diagnostics().add(new Diagnostic(
+                start, "ANTLR failed to process the grammar: " + ex, DiagnosticSeverity.Error, "antlr4"));
+        }
+        diagnostics.addAll(collector.diagnostics());
+        return new ProcessedGrammar(grammar, diagnostics);
+    }
+}
@@ -0,0 +1,14 @@
+package antlr4ls;
+
+/**
+ * Parameters of the {@code antlr4ls/profile} request.
+ *
+ * @param uri the parser or combined grammar to profile
+ * @param input sample input to parse, or null to read {@code inputUri}
+ * @param inputUri file with sample input
+ * @param startRule rule to start parsing at, the first parser rule if null
+ * @param timeoutMillis time limit for the run, the profileTimeoutMillis
+ *     setting if null
+ */
+public record ProfileParams(String uri, String input, String inputUri, String startRule, Long timeoutMillis) {
+}
@@ -0,0 +1,295 @@
+package antlr4ls;
+
+/**
+ * Immutable text buffer backed by a balanced tree of string chunks.
+ *
+ * Edits and line/offset conversions are O(log n); every edit returns a new
+ * rope that shares unchanged chunks with the previous one, so older versions
+ * stay valid for readers that still hold them.
+ */
+public final class Rope {
+
+    static final int MAX_LEAF = 1024;
+
+    private static final Rope EMPTY = new Rope(new Leaf(""));
+
+    private sealed interface Node permits Leaf, Branch {
+
+        int length();
+
+        int newlines();
+
+        int height();
+    }
+
+    private record Leaf(String text, int newlines) implements Node {
+
+        Leaf(String text) {
+            this(text, countNewlines(text));
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public int height() {
+            return 0;
+        }
+    }
+
+    private record Branch(Node left, Node right, int length, int newlines, int height) implements Node {
+
+        Branch(Node left, Node right) {
+            this(
+                left,
+                right,
+                left.length() + right.length(),
+                left.newlines() + right.newlines(),
+                Math.max(left.height(), right.height()) + 1
+            );
+        }
+    }
+
+    private record Pair(Node left, Node right) {
+    }
+
+    private final Node root;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public static Rope of(String text) {
+        if (text.isEmpty()) {
+            return EMPTY;
+        }
+        return new Rope(build(text, 0, text.length()));
+    }
+
+    public int length() {
+        return root.length();
+    }
+
+    public int lineCount() {
+        return root.newlines() + 1;
+    }
+
+    public Rope replace(int start, int end, String text) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("Invalid range " + start + ".." + end + " for length " + length());
+        }
+        Pair head = split(root, start);
+        Pair tail = split(head.right(), end - start);
+        Node middle = text.isEmpty() ? tail.right() : join(build(text, 0, text.length()), tail.right());
+        return new Rope(join(head.left(), middle));
+    }
+
+    public Rope insert(int offset, String text) {
+        return replace(offset, offset, text);
+    }
+
+    public Rope delete(int start, int end) {
+        return replace(start, end, "");
+    }
+
+    public char charAt(int offset) {
+        if (offset < 0 || offset >= length()) {
+            throw new IndexOutOfBoundsException(offset);
+        }
+        Node node = root;
+        while (node instanceof Branch branch) {
+            if (offset < branch.left().length()) {
+                node = branch.left();
+            } else {
+                offset -= branch.left().length();
+                node = branch.right();
+            }
+        }
+        return ((Leaf) node).text().charAt(offset);
+    }
+
+    /**
+     * Offset of the first character of the given 0-based line. Lines past the
+     * end map to the end of the text.
+     */
+    public int lineStart(int line) {
+        if (line <= 0) {
+            return 0;
+        }
+        if (line > root.newlines()) {
+            return length();
+        }
+        Node node = root;
+        int offset = 0;
+        while (node instanceof Branch branch) {
+            if (line <= branch.left().newlines()) {
+                node = branch.left();
+            } else {
+                line -= branch.left().newlines();
+                offset += branch.left().length();
+                node = branch.right();
+            }
+        }
+        String text = ((Leaf) node).text();
+        int idx = -1;
+        for (int i = 0; i < line; i++) {
+            idx = text.indexOf('\n', idx + 1);
+        }
+        return offset + idx + 1;
+    }
+
+    /**
+     * Converts an LSP style line/character pair into an offset, clamping
+     * characters past the end of the line to the line end.
+     */
+    public int offsetAt(int line, int character) {
+        int start = lineStart(line);
+        if (line > root.newlines()) {
+            return start;
+        }
+        int end = line >= root.newlines() ? length() : lineStart(line + 1) - 1;
+        return Math.min(start + Math.max(character, 0), end);
+    }
+
+    /**
+     * 0-based line containing the given offset.
+     */
+    public int lineOf(int offset) {
+        offset = Math.max(0, Math.min(offset, length()));
+        Node node = root;
+        int line = 0;
+        while (node instanceof Branch branch) {
+            if (offset < branch.left().length()) {
+                node = branch.left();
+            } else {
+                offset -= branch.left().length();
+                line += branch.left().newlines();
+                node = branch.right();
+            }
+        }
+        String text = ((Leaf) node).text();
+        for (int i = 0; i < offset; i++) {
+            if (text.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    public String substring(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(root, start, end, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        appendRange(root, 0, length(), sb);
+        return sb.toString();
+    }
+
+    private static void appendRange(Node node, int start, int end, StringBuilder sb) {
+        if (start >= end) {
+            return;
+        }
+        if (node instanceof Leaf leaf) {
+            sb.append(leaf.text(), start, end);
+            return;
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left().length();
+        if (start < leftLength) {
+            appendRange(branch.left(), start, Math.min(end, leftLength), sb);
+        }
+        if (end > leftLength) {
+            appendRange(branch.right(), Math.max(start - leftLength, 0), end - leftLength, sb);
+        }
+    }
+
+    private static int countNewlines(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Node build(String text, int start, int end) {
+        if (end - start <= MAX_LEAF) {
+            return new Leaf(text.substring(start, end));
+        }
+        int mid = (start + end) >>> 1;
+        return new Branch(build(text, start, mid), build(text, mid, end));
+    }
+
+    private static Pair split(Node node, int offset) {
+        if (offset <= 0) {
+            return new Pair(EMPTY.root, node);
+        }
+        if (offset >= node.length()) {
+            return new Pair(node, EMPTY.root);
+        }
+        if (node instanceof Leaf leaf) {
+            String text = leaf.text();
+            return new Pair(new Leaf(text.substring(0, offset)), new Leaf(text.substring(offset)));
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left().length();
+        if (offset < leftLength) {
+            Pair pair = split(branch.left(), offset);
+            return new Pair(pair.left(), join(pair.right(), branch.right()));
+        }
+        Pair pair = split(branch.right(), offset - leftLength);
+        return new Pair(join(branch.left(), pair.left()), pair.right());
+    }
+
+    private static Node join(Node left, Node right) {
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        if (left instanceof Leaf l && right instanceof Leaf r && l.length() + r.length() <= MAX_LEAF) {
+            return new Leaf(l.text() + r.text(), l.newlines() + r.newlines());
+        }
+        int leftHeight = left.height();
+        int rightHeight = right.height();
+        if (leftHeight > rightHeight + 1) {
+            Branch branch = (Branch) left;
+            return rebalance(branch.left(), join(branch.right(), right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            Branch branch = (Branch) right;
+            return rebalance(join(left, branch.left()), branch.right());
+        }
+        return new Branch(left, right);
+    }
+
+    private static Node rebalance(Node left, Node right) {
+        int leftHeight = left.height();
+        int rightHeight = right.height();
+        if (leftHeight > rightHeight + 1) {
+            Branch l = (Branch) left;
+            if (l.left().height() >= l.right().height()) {
+                return new Branch(l.left(), new Branch(l.right(), right));
+            }
+            Branch lr = (Branch) l.right();
+            return new Branch(new Branch(l.left(), lr.left()), new Branch(lr.right(), right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            Branch r = (Branch) right;
+            if (r.right().height() >= r.left().height()) {
+                return new Branch(new Branch(left, r.left()), r.right());
+            }
+            Branch rl = (Branch) r.left();
+            return new Branch(new Branch(left, rl.left()), new Branch(rl.right(), r.right()));
+        }
+        return new Branch(left, right);
+    }
+}
@@ -0,0 +1,331 @@
+package antlr4ls;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.antlr.runtime.BufferedTokenStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.parse.ANTLRParser;
+import org.antlr.v4.tool.ast.AltAST;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.SemanticTokensLegend;
+
+/**
+ * Encodes the tokens of a grammar in the relative int format of
+ * textDocument/semanticTokens.
+ *
+ * The token stream the ANTLR tool keeps on the parsed AST gives keywords,
+ * literals, actions and comments. Identifiers are classified by the AST node
+ * that holds their token, so lexer commands, labels and option names aren't
+ * mistaken for rule or token references.
+ */
+public final class SemanticTokensEncoder {
+
+    public static final List<String> TYPES = List.of(
+        "keyword",
+        "namespace",
+        "function",
+        "type",
+        "enum",
+        "enumMember",
+        "property",
+        "variable",
+        "label",
+        "decorator",
+        "string",
+        "number",
+        "comment",
+        "macro"
+    );
+    public static final List<String> MODIFIERS = List.of("declaration");
+
+    private static final int KEYWORD = 0;
+    private static final int NAMESPACE = 1;
+    private static final int FUNCTION = 2;
+    private static final int TYPE = 3;
+    private static final int ENUM = 4;
+    private static final int ENUM_MEMBER = 5;
+    private static final int PROPERTY = 6;
+    private static final int VARIABLE = 7;
+    private static final int LABEL = 8;
+    private static final int DECORATOR = 9;
+    private static final int STRING = 10;
+    private static final int NUMBER = 11;
+    private static final int COMMENT = 12;
+    private static final int MACRO = 13;
+
+    private static final int NONE = -1;
+    private static final int DECLARATION = 1 << 16;
+
+    private static final int[] EMPTY = new int[0];
+
+    private SemanticTokensEncoder() {
+    }
+
+    public static SemanticTokensLegend legend() {
+        return new SemanticTokensLegend(TYPES, MODIFIERS);
+    }
+
+    public static int[] encode(ParsedGrammar parsed) {
+        GrammarRootAST ast = parsed.ast();
+        if (ast == null || !(ast.tokenStream instanceof BufferedTokenStream stream)) {
+            return EMPTY;
+        }
+        List<?> tokens = stream.getTokens();
+        int[] classes = new int[tokens.size()];
+        Arrays.fill(classes, NONE);
+        classify(ast, classes);
+
+        Encoder encoder = new Encoder(tokens.size() * 2);
+        for (int i = 0; i < tokens.size(); i++) {
+            CommonToken token = (CommonToken) tokens.get(i);
+            int type = token.getType();
+            int value = classes[i] != NONE ? classes[i] : lexical(type);
+            if (value == NONE) {
+                continue;
+            }
+            int line = token.getLine() - 1;
+            int column = token.getCharPositionInLine();
+            int length = token.getStopIndex() - token.getStartIndex() + 1;
+            switch (type) {
+                case ANTLRParser.OPTIONS, ANTLRParser.TOKENS_SPEC, ANTLRParser.CHANNELS -> {
+                    // the token includes the opening brace
+                    String text = token.getText();
+                    int word = 0;
+                    while (word < text.length() && Character.isLetter(text.charAt(word))) {
+                        word++;
+                    }
+                    encoder.add(line, column, word, value);
+                }
+                case ANTLRParser.ACTION, ANTLRParser.ARG_ACTION, ANTLRParser.SEMPRED,
+                        ANTLRParser.COMMENT, ANTLRParser.DOC_COMMENT -> {
+                    String text = token.getInputStream().substring(token.getStartIndex(), token.getStopIndex());
+                    encoder.addLines(line, column, text, value);
+                }
+                default -> encoder.add(line, column, length, value);
+            }
+        }
+        return encoder.toArray();
+    }
+
+    private static int lexical(int tokenType) {
+        return switch (tokenType) {
+            case ANTLRParser.GRAMMAR, ANTLRParser.LEXER, ANTLRParser.PARSER, ANTLRParser.FRAGMENT,
+                    ANTLRParser.IMPORT, ANTLRParser.OPTIONS, ANTLRParser.TOKENS_SPEC, ANTLRParser.CHANNELS,
+                    ANTLRParser.MODE, ANTLRParser.RETURNS, ANTLRParser.LOCALS, ANTLRParser.THROWS,
+                    ANTLRParser.CATCH, ANTLRParser.FINALLY -> KEYWORD;
+            case ANTLRParser.STRING_LITERAL, ANTLRParser.LEXER_CHAR_SET -> STRING;
+            case ANTLRParser.INT -> NUMBER;
+            case ANTLRParser.COMMENT, ANTLRParser.DOC_COMMENT -> COMMENT;
+            case ANTLRParser.ACTION, ANTLRParser.ARG_ACTION, ANTLRParser.SEMPRED -> MACRO;
+            default -> NONE;
+        };
+    }
+
+    private static void classify(Tree node, int[] classes) {
+        int count = node.getChildCount();
+        for (int i = 0; i < count; i++) {
+            Tree child = node.getChild(i);
+            int value = classify(node, i, child);
+            if (value != NONE) {
+                set(classes, child, value);
+            }
+            if (child instanceof AltAST alt && alt.altLabel != null) {
+                set(classes, alt.altLabel, LABEL | DECLARATION);
+            }
+            classify(child, classes);
+        }
+    }
+
+    private static int classify(Tree parent, int index, Tree child) {
+        int parentType = parent.getType();
+        switch (child.getType()) {
+            case ANTLRParser.RULE_REF:
+                return parentType == ANTLRParser.RULE && index == 0 ? FUNCTION | DECLARATION : FUNCTION;
+            case ANTLRParser.TOKEN_REF:
+                return parentType == ANTLRParser.RULE && index == 0 ? TYPE | DECLARATION : TYPE;
+            case ANTLRParser.ID:
+                break;
+            default:
+                return NONE;
+        }
+        return switch (parentType) {
+            case ANTLRParser.GRAMMAR -> NAMESPACE | DECLARATION;
+            case ANTLRParser.IMPORT -> NAMESPACE;
+            case ANTLRParser.TOKENS_SPEC -> TYPE | DECLARATION;
+            case ANTLRParser.CHANNELS -> ENUM_MEMBER | DECLARATION;
+            case ANTLRParser.MODE -> ENUM | DECLARATION;
+            case ANTLRParser.AT -> DECORATOR;
+            case ANTLRParser.LEXER_ALT_ACTION -> KEYWORD;
+            case ANTLRParser.LEXER_ACTION_CALL -> {
+                if (index == 0) {
+                    yield KEYWORD;
+                }
+                yield switch (parent.getChild(0).getText()) {
+                    case "channel" -> ENUM_MEMBER;
+                    case "mode", "pushMode" -> ENUM;
+                    case "type" -> TYPE;
+                    default -> NONE;
+                };
+            }
+            case ANTLRParser.ASSIGN, ANTLRParser.PLUS_ASSIGN -> {
+                int grandParentType = parent.getParent() == null ? 0 : parent.getParent().getType();
+                if (grandParentType == ANTLRParser.OPTIONS || grandParentType == ANTLRParser.ELEMENT_OPTIONS) {
+                    yield index == 0 ? PROPERTY : NONE;
+                }
+                // import Alias=Grammar;
+                if (grandParentType == ANTLRParser.IMPORT) {
+                    yield NAMESPACE;
+                }
+                yield index == 0 ? VARIABLE | DECLARATION : NONE;
+            }
+            default -> NONE;
+        };
+    }
+
+    private static void set(int[] classes, Tree node, int value) {
+        if (node instanceof CommonTree tree && tree.getToken() != null) {
+            int index = tree.getToken().getTokenIndex();
+            if (index >= 0 && index < classes.length) {
+                classes[index] = value;
+            }
+        }
+    }
+
+    /**
+     * The tokens of {@code data} that start within the range, encoded on
+     * their own.
+     */
+    public static int[] range(int[] data, int startLine, int startCharacter, int endLine, int endCharacter) {
+        Encoder encoder = new Encoder(64);
+        int line = 0;
+        int column = 0;
+        for (int i = 0; i + 4 < data.length; i += 5) {
+            line += data[i];
+            column = data[i] == 0 ? column + data[i + 1] : data[i + 1];
+            if (line > endLine || (line == endLine && column >= endCharacter)) {
+                break;
+            }
+            if (line > startLine || (line == startLine && column >= startCharacter)) {
+                encoder.add(line, column, data[i + 2], data[i + 3] | data[i + 4] << 16);
+            }
+        }
+        return encoder.toArray();
+    }
+
+    /**
+     * A single edit turning {@code previous} into {@code current}, covering
+     * everything between their common prefix and suffix, or null if they are
+     * equal.
+     */
+    public static SemanticTokensEdit diff(int[] previous, int[] current) {
+        int max = Math.min(previous.length, current.length);
+        int prefix = Arrays.mismatch(previous, current);
+        if (prefix < 0) {
+            return null;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && previous[previous.length - 1 - suffix] == current[current.length - 1 - suffix]) {
+            suffix++;
+        }
+        return new SemanticTokensEdit(
+            prefix,
+            previous.length - prefix - suffix,
+            asList(current, prefix, current.length - suffix));
+    }
+
+    /**
+     * View of {@code data[from..to)} for lsp4j, without copying or boxing
+     * the whole array up front.
+     */
+    public static List<Integer> asList(int[] data, int from, int to) {
+        return new IntList(data, from, to);
+    }
+
+    private static final class IntList extends AbstractList<Integer> implements RandomAccess {
+
+        private final int[] data;
+        private final int from;
+        private final int to;
+
+        IntList(int[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return data[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    private static final class Encoder {
+
+        private int[] data;
+        private int size;
+        private int previousLine;
+        private int previousColumn;
+
+        Encoder(int capacity) {
+            data = new int[Math.max(5, capacity - capacity % 5)];
+        }
+
+        /**
+         * @param value token type index in the low bits, modifiers above bit 16
+         */
+        void add(int line, int column, int length, int value) {
+            if (length <= 0) {
+                return;
+            }
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size] = line - previousLine;
+            data[size + 1] = line == previousLine ? column - previousColumn : column;
+            data[size + 2] = length;
+            data[size + 3] = value & 0xffff;
+            data[size + 4] = value >>> 16;
+            size += 5;
+            previousLine = line;
+            previousColumn = column;
+        }
+
+        /**
+         * Adds a token one line at a time, clients don't have to support
+         * multiline tokens.
+         */
+        void addLines(int line, int column, String text, int value) {
+            int start = 0;
+            while (true) {
+                int end = text.indexOf('\n', start);
+                int lineEnd = end < 0 ? text.length() : end;
+                if (lineEnd > start && text.charAt(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                add(line, column, lineEnd - start, value);
+                if (end < 0) {
+                    return;
+                }
+                start = end + 1;
+                line++;
+                column = 0;
+            }
+        }
+
+        int[] toArray() {
+            return size == data.length ? data : Arrays.copyOf(data, size);
+        }
+    }
+}
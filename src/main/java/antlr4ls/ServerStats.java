@@ -0,0 +1,28 @@
+package antlr4ls;
+
+import java.util.Map;
+
+/**
+ * Result of antlr4ls/stats and payload of the periodic telemetry events.
+ *
+ * @param latencies by LSP method, lint phase ("lint/syntax",
+ *     "lint/semantic"), "findNode" and time spent waiting in the request
+ *     queue ("queue/requests"), requests also with the bytes their
+ *     handler allocated
+ */
+public record ServerStats(
+    Map<String, Metrics.Latency> latencies,
+    Documents.Stats documents,
+    double parseHitRate,
+    double processHitRate,
+    Queues queues) {
+
+    /**
+     * @param activeRequests requests queued or running
+     * @param queuedRequests requests waiting for a request thread
+     * @param queuedBackground lint and indexing tasks waiting for a worker
+     * @param pendingLints debounced lint jobs of edited documents
+     */
+    public record Queues(int activeRequests, int queuedRequests, int queuedBackground, int pendingLints) {
+    }
+}
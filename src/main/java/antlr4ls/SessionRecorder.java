@@ -0,0 +1,78 @@
+package antlr4ls;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
+
+/**
+ * Writes the messages between client and server to a file, one JSON object
+ * per line with the milliseconds since the recording started and the side
+ * that sent it:
+ * {@code {"millis":12,"from":"client","message":{"jsonrpc":"2.0",...}}}.
+ * {@link SessionReplay} plays the client side of such a file back.
+ */
+public class SessionRecorder implements Closeable {
+
+    private final BufferedWriter writer;
+    private final MessageJsonHandler json =
+        new MessageJsonHandler(ServiceEndpoints.getSupportedMethods(Antlr4Server.class));
+    private final long start = System.nanoTime();
+    // set on the first write error, the rest of the session isn't recorded
+    private volatile boolean failed;
+
+    public SessionRecorder(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * For {@code Launcher.Builder.wrapMessages}, which wraps both the stream
+     * to the client and the endpoint that handles the client's messages:
+     * records every message before passing it on.
+     */
+    public MessageConsumer wrap(MessageConsumer next) {
+        String from = next instanceof StreamMessageConsumer ? "server" : "client";
+        return message -> {
+            if (!failed) {
+                record(from, json.serialize(message));
+            }
+            next.consume(message);
+        };
+    }
+
+    private synchronized void record(String from, String message) {
+        if (failed) {
+            return;
+        }
+        var line = new JsonObject();
+        line.addProperty("millis", (System.nanoTime() - start) / 1_000_000);
+        line.addProperty("from", from);
+        line.add("message", JsonParser.parseString(message));
+        try {
+            writer.write(line.toString());
+            writer.newLine();
+            // the client may kill the server at any time
+            writer.flush();
+        } catch (IOException ex) {
+            // stdout is the connection to the client; the message may hold a
+            // whole grammar, so it isn't printed
+            failed = true;
+            System.err.println("Couldn't record the session, recording stopped: " + ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,395 @@
+package antlr4ls;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.launch.LSPLauncher;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+/**
+ * Plays a session written by {@link SessionRecorder} back against an
+ * in-process server connected through pipes, and reports the latency of
+ * each method as seen by the client and the bytes its handler allocated:
+ * {@code antlr4ls replay [--speed x] [--concurrency n] [--max-p99 millis] <session>}.
+ *
+ * Messages are sent with the recorded delays divided by the speed-up, or
+ * back to back with speed 0. At most {@code concurrency} requests are
+ * outstanding: with the default of 1 each request waits for the previous
+ * response, raise it to replay edit storms where the editor doesn't wait.
+ * Requests from the server are answered with null. Files the session did
+ * not open must still exist, the server reads them from disk.
+ */
+public class SessionReplay {
+
+    public record Recorded(long millis, JsonObject message) {
+    }
+
+    public record MethodStats(String method, int count, double p50Millis, double p99Millis, double maxMillis, long meanAllocatedBytes) {
+    }
+
+    private record Sent(String method, long nanos) {
+    }
+
+    /**
+     * In-memory pipe. Unlike PipedInputStream it keeps working after the
+     * last thread that wrote to it ended, and unlike an nio Pipe a writer
+     * being interrupted doesn't close it, which the server does to its
+     * workers on shutdown.
+     */
+    private static final class MemoryPipe {
+
+        private static final byte[] END = new byte[0];
+
+        private final LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+
+        final OutputStream out = new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                chunks.add(new byte[] {(byte) b});
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (len > 0) {
+                    chunks.add(Arrays.copyOfRange(b, off, off + len));
+                }
+            }
+
+            @Override
+            public void close() {
+                chunks.add(END);
+            }
+        };
+
+        final InputStream in = new InputStream() {
+
+            private byte[] chunk;
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                return next() ? chunk[position++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!next()) {
+                    return -1;
+                }
+                int count = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            private boolean next() throws IOException {
+                if (chunk == END) {
+                    return false;
+                }
+                if (chunk == null || position == chunk.length) {
+                    try {
+                        chunk = chunks.take();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                    position = 0;
+                }
+                return chunk != END;
+            }
+        };
+    }
+
+    private static final String USAGE =
+        "usage: antlr4ls replay [--speed x] [--concurrency n] [--max-p99 millis] <session>";
+    private static final long RESPONSE_TIMEOUT_MILLIS = 60_000;
+
+    private final double speed;
+    private final int concurrency;
+    private final ConcurrentHashMap<String, Sent> pending = new ConcurrentHashMap<>();
+    private final Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+
+    public SessionReplay(double speed, int concurrency) {
+        this.speed = speed;
+        this.concurrency = Math.max(1, concurrency);
+        this.permits = new Semaphore(this.concurrency);
+    }
+
+    public static int main(List<String> args, PrintStream out, PrintStream err) {
+        double speed = 1;
+        int concurrency = 1;
+        double maxP99 = Double.POSITIVE_INFINITY;
+        Path session = null;
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                String arg = args.get(i);
+                switch (arg) {
+                    case "--speed" -> speed = Double.parseDouble(args.get(++i));
+                    case "--concurrency" -> concurrency = Integer.parseInt(args.get(++i));
+                    case "--max-p99" -> maxP99 = Double.parseDouble(args.get(++i));
+                    default -> {
+                        if (arg.startsWith("-") || session != null) {
+                            throw new IllegalArgumentException("unexpected argument " + arg);
+                        }
+                        session = Path.of(arg);
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            err.println(ex instanceof IndexOutOfBoundsException ? "missing option value" : ex.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        if (session == null || speed < 0) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        List<MethodStats> stats;
+        long start = System.nanoTime();
+        try {
+            List<Recorded> recorded = load(session);
+            stats = new SessionReplay(speed, concurrency).replay(recorded);
+            err.printf(Locale.ROOT, "replayed %d messages in %.1f ms (speed %s, concurrency %d)%n",
+                recorded.size(), (System.nanoTime() - start) / 1e6, speed == 0 ? "max" : speed, concurrency);
+        } catch (IOException ex) {
+            err.println("replay of " + session + " failed: " + ex.getMessage());
+            return 2;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 2;
+        }
+
+        out.printf(Locale.ROOT, "%-42s %7s %9s %9s %9s %12s%n", "method", "count", "p50 ms", "p99 ms", "max ms", "alloc/req");
+        boolean slow = false;
+        for (MethodStats method : stats) {
+            out.printf(Locale.ROOT, "%-42s %7d %9.2f %9.2f %9.2f %9.1f KB%n",
+                method.method(), method.count(), method.p50Millis(), method.p99Millis(), method.maxMillis(),
+                method.meanAllocatedBytes() / 1024.0);
+            if (method.p99Millis() > maxP99) {
+                err.printf(Locale.ROOT, "%s: p99 %.2f ms > %.2f ms%n", method.method(), method.p99Millis(), maxP99);
+                slow = true;
+            }
+        }
+        out.flush();
+        return slow ? 1 : 0;
+    }
+
+    /**
+     * Messages the client sent in a recorded session. Its responses to
+     * requests of the server are left out, the replay answers those itself.
+     */
+    public static List<Recorded> load(Path file) throws IOException {
+        ArrayList<Recorded> session = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonObject recorded = JsonParser.parseString(line).getAsJsonObject();
+            JsonObject message = recorded.getAsJsonObject("message");
+            if (recorded.get("from").getAsString().equals("client") && message.has("method")) {
+                session.add(new Recorded(recorded.get("millis").getAsLong(), message));
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Replays {@code session} against a new server, the result is sorted by
+     * method.
+     */
+    public List<MethodStats> replay(List<Recorded> session) throws IOException, InterruptedException {
+        MemoryPipe toServer = new MemoryPipe();
+        MemoryPipe toClient = new MemoryPipe();
+        OutputStream clientOut = toServer.out;
+        InputStream clientIn = toClient.in;
+
+        Antlr4Server server = new Antlr4Server();
+        Launcher<LanguageClient> launcher = LSPLauncher.createServerLauncher(server, toServer.in, toClient.out);
+        server.connect(launcher.getRemoteProxy());
+        Future<Void> listening = launcher.startListening();
+
+        Thread reader = new Thread(() -> readResponses(clientIn, clientOut), "antlr4ls-replay-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            send(session, clientOut);
+            drain();
+            return stats(server.metrics().latencies());
+        } finally {
+            server.shutdown();
+            clientOut.close();
+            listening.cancel(true);
+            toClient.out.close();
+            reader.join(1000);
+        }
+    }
+
+    private void send(List<Recorded> session, OutputStream out) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long first = session.isEmpty() ? 0 : session.get(0).millis();
+        for (Recorded recorded : session) {
+            JsonObject message = recorded.message();
+            String method = message.get("method").getAsString();
+            if (method.equals("exit")) {
+                // would exit the JVM
+                continue;
+            }
+            if (method.equals("shutdown")) {
+                // the server drops requests still queued when it shuts down
+                drain();
+            }
+            if (speed > 0) {
+                long due = start + (long) ((recorded.millis() - first) * 1e6 / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            if (message.has("id")) {
+                if (!permits.tryAcquire(RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("no response to " + pending.values());
+                }
+                pending.put(message.get("id").toString(), new Sent(method, System.nanoTime()));
+            }
+            write(out, message);
+        }
+    }
+
+    /**
+     * Waits for the responses to all requests sent.
+     */
+    private void drain() throws IOException, InterruptedException {
+        if (!permits.tryAcquire(concurrency, RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new IOException("no response to " + pending.values());
+        }
+        permits.release(concurrency);
+    }
+
+    private void readResponses(InputStream in, OutputStream out) {
+        try {
+            JsonObject message;
+            while ((message = read(in)) != null) {
+                if (!message.has("id")) {
+                    continue;
+                }
+                if (message.has("method")) {
+                    var response = new JsonObject();
+                    response.addProperty("jsonrpc", "2.0");
+                    response.add("id", message.get("id"));
+                    response.add("result", null);
+                    write(out, response);
+                    continue;
+                }
+                Sent sent = pending.remove(message.get("id").toString());
+                if (sent != null) {
+                    long nanos = System.nanoTime() - sent.nanos();
+                    latencies.computeIfAbsent(sent.method(), key -> Collections.synchronizedList(new ArrayList<>())).add(nanos);
+                    permits.release();
+                }
+            }
+        } catch (IOException ex) {
+            // the server went away, send() times out on the outstanding requests
+        }
+    }
+
+    private List<MethodStats> stats(Map<String, Metrics.Latency> server) {
+        TreeMap<String, MethodStats> stats = new TreeMap<>();
+        latencies.forEach((method, samples) -> {
+            long[] sorted;
+            synchronized (samples) {
+                sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+            }
+            Metrics.Latency latency = server.get(method);
+            stats.put(method, new MethodStats(
+                method,
+                sorted.length,
+                percentile(sorted, 0.50),
+                percentile(sorted, 0.99),
+                sorted[sorted.length - 1] / 1e6,
+                latency == null ? 0 : latency.meanAllocatedBytes()));
+        });
+        return List.copyOf(stats.values());
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static void write(OutputStream out, JsonObject message) throws IOException {
+        byte[] content = message.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (out) {
+            out.write(header);
+            out.write(content);
+            out.flush();
+        }
+    }
+
+    /**
+     * Next message in LSP base protocol framing, null at the end of the
+     * stream.
+     */
+    private static JsonObject read(InputStream in) throws IOException {
+        int length = -1;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            if (b != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+                continue;
+            }
+            String header = line.toString(StandardCharsets.US_ASCII);
+            line.reset();
+            if (header.isEmpty()) {
+                break;
+            }
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                length = Integer.parseInt(header.substring(colon + 1).trim());
+            }
+        }
+        if (length < 0) {
+            throw new IOException("message without Content-Length");
+        }
+        byte[] content = in.readNBytes(length);
+        if (content.length < length) {
+            return null;
+        }
+        return JsonParser.parseString(new String(content, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+}
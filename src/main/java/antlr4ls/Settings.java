@@ -0,0 +1,152 @@
+package antlr4ls;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Options of the server. Immutable, a change of configuration replaces the
+ * instance so workers never see a half applied update.
+ */
+public class Settings {
+
+    private final long lintDebounceMillis;
+    private final int lintThreads;
+    private final long semanticLintMaxSize;
+    private final String indexCacheDirectory;
+    private final long profileTimeoutMillis;
+    private final boolean lintWorkspace;
+    private final long grammarCacheMegabytes;
+    private final long telemetryIntervalSeconds;
+
+    public Settings() {
+        this(250, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1_000_000, null, 10_000, false, 256, 0);
+    }
+
+    private Settings(
+            long lintDebounceMillis,
+            int lintThreads,
+            long semanticLintMaxSize,
+            String indexCacheDirectory,
+            long profileTimeoutMillis,
+            boolean lintWorkspace,
+            long grammarCacheMegabytes,
+            long telemetryIntervalSeconds) {
+        this.lintDebounceMillis = lintDebounceMillis;
+        this.lintThreads = lintThreads;
+        this.semanticLintMaxSize = semanticLintMaxSize;
+        this.indexCacheDirectory = indexCacheDirectory;
+        this.profileTimeoutMillis = profileTimeoutMillis;
+        this.lintWorkspace = lintWorkspace;
+        this.grammarCacheMegabytes = grammarCacheMegabytes;
+        this.telemetryIntervalSeconds = telemetryIntervalSeconds;
+    }
+
+    public static Settings parse(Object options) {
+        return new Settings().with(options);
+    }
+
+    /**
+     * These settings with the options sent by the client applied, either as
+     * initializationOptions or as the "antlr4ls" section of
+     * workspace/didChangeConfiguration. Unknown or malformed entries are
+     * ignored.
+     */
+    public Settings with(Object options) {
+        if (!(options instanceof JsonObject json)) {
+            return this;
+        }
+        if (json.get("antlr4ls") instanceof JsonObject section) {
+            json = section;
+        }
+        return new Settings(
+            getLong(json, "lintDebounceMillis", lintDebounceMillis),
+            (int) getLong(json, "lintThreads", lintThreads),
+            getLong(json, "semanticLintMaxSize", semanticLintMaxSize),
+            getString(json, "indexCacheDirectory", indexCacheDirectory),
+            getLong(json, "profileTimeoutMillis", profileTimeoutMillis),
+            getBoolean(json, "lintWorkspace", lintWorkspace),
+            getLong(json, "grammarCacheMegabytes", grammarCacheMegabytes),
+            getLong(json, "telemetryIntervalSeconds", telemetryIntervalSeconds));
+    }
+
+    public long lintDebounceMillis() {
+        return lintDebounceMillis;
+    }
+
+    /**
+     * Threads of the lint and index pool, resized when the setting changes.
+     */
+    public int lintThreads() {
+        return lintThreads;
+    }
+
+    /**
+     * Files with more characters than this only get syntax diagnostics.
+     */
+    public long semanticLintMaxSize() {
+        return semanticLintMaxSize;
+    }
+
+    /**
+     * Where the workspace index is persisted between sessions, or null to not
+     * persist it.
+     */
+    public String indexCacheDirectory() {
+        return indexCacheDirectory;
+    }
+
+    /**
+     * Time limit of an antlr4ls/profile run that doesn't set its own.
+     */
+    public long profileTimeoutMillis() {
+        return profileTimeoutMillis;
+    }
+
+    /**
+     * Whether all grammars in the workspace folders are linted in the
+     * background, not only the ones opened or saved.
+     */
+    public boolean lintWorkspace() {
+        return lintWorkspace;
+    }
+
+    /**
+     * Estimated heap for the grammars of files that aren't open, beyond it
+     * the least recently used ones are dropped.
+     */
+    public long grammarCacheMegabytes() {
+        return grammarCacheMegabytes;
+    }
+
+    /**
+     * How often the antlr4ls/stats result is sent as a telemetry event, 0 to
+     * not send it.
+     */
+    public long telemetryIntervalSeconds() {
+        return telemetryIntervalSeconds;
+    }
+
+    private static long getLong(JsonObject json, String key, long defaultValue) {
+        JsonElement element = json.get(key);
+        if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber()) {
+            return defaultValue;
+        }
+        return element.getAsLong();
+    }
+
+    private static boolean getBoolean(JsonObject json, String key, boolean defaultValue) {
+        JsonElement element = json.get(key);
+        if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean()) {
+            return defaultValue;
+        }
+        return element.getAsBoolean();
+    }
+
+    private static String getString(JsonObject json, String key, String defaultValue) {
+        JsonElement element = json.get(key);
+        if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString()) {
+            return defaultValue;
+        }
+        return element.getAsString();
+    }
+}
@@ -0,0 +1,271 @@
+package antlr4ls;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import antlr4ls.SymbolTable.Kind;
+
+/**
+ * Declared names of every grammar in the workspace, for workspace/symbol.
+ *
+ * Each name is split into lowercase trigrams and every trigram maps to the
+ * ids of the names containing it. A query first scores the names sharing at
+ * least half of its trigrams, which include all names containing the query.
+ * Only if that leaves room for more results are the remaining names scanned
+ * for abbreviations. Updating a grammar touches the posting lists of the
+ * names it added or removed, names that are still declared keep their id.
+ */
+public class SymbolSearchIndex {
+
+    public record Match(String name, Kind kind, String grammar, Path path, int line, int column) {
+    }
+
+    private record Key(Kind kind, String name) {
+    }
+
+    private record Scored(Match match, int score) {
+    }
+
+    private static final class Postings {
+
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final Kind[] INDEXED = {Kind.RULE, Kind.TOKEN, Kind.CHANNEL, Kind.MODE};
+
+    private static final Comparator<Scored> BEST_FIRST = Comparator
+        .comparingInt(Scored::score).reversed()
+        .thenComparingInt(scored -> scored.match().name().length())
+        .thenComparing(scored -> scored.match().name())
+        .thenComparing(scored -> scored.match().path());
+
+    private Match[] matches = new Match[64];
+    private String[] lowerNames = new String[64];
+    private int slots;
+    private int[] free = new int[16];
+    private int freeCount;
+    private int size;
+
+    private final HashMap<Path, Map<Key, Integer>> byFile = new HashMap<>();
+    private final HashMap<Long, Postings> postings = new HashMap<>();
+
+    /**
+     * Replaces the names declared in {@code path}.
+     */
+    public synchronized void update(Path path, String grammar, SymbolTable symbols) {
+        Map<Key, Integer> previous = byFile.remove(path);
+        HashMap<Key, Integer> current = new HashMap<>();
+        for (Kind kind : INDEXED) {
+            for (SymbolTable.Symbol symbol : symbols.symbols(kind)) {
+                if (symbol.declarationCount() == 0) {
+                    continue;
+                }
+                Key key = new Key(kind, symbol.name());
+                Match match = new Match(
+                    symbol.name(), kind, grammar, path, symbol.declarationLine(0), symbol.declarationColumn(0));
+                Integer id = previous == null ? null : previous.remove(key);
+                if (id == null) {
+                    id = add(match);
+                } else {
+                    matches[id] = match;
+                }
+                current.put(key, id);
+            }
+        }
+        if (previous != null) {
+            previous.values().forEach(this::release);
+        }
+        if (!current.isEmpty()) {
+            byFile.put(path, current);
+        }
+    }
+
+    public synchronized void remove(Path path) {
+        Map<Key, Integer> previous = byFile.remove(path);
+        if (previous != null) {
+            previous.values().forEach(this::release);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Names matching {@code query}, best first: exact, prefix, substring and
+     * then subsequence matches, ignoring case. An empty query matches all.
+     */
+    public synchronized List<Match> search(String query, int limit) {
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        PriorityQueue<Scored> best = new PriorityQueue<>(BEST_FIRST.reversed());
+        if (lowerQuery.length() < 3) {
+            for (int id = 0; id < slots; id++) {
+                if (matches[id] != null) {
+                    offer(best, id, lowerQuery, limit);
+                }
+            }
+        } else {
+            long[] trigrams = trigrams(lowerQuery);
+            int threshold = (trigrams.length + 1) / 2;
+            int[] counts = new int[slots];
+            for (long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int id = list.ids[i];
+                    if (++counts[id] == threshold) {
+                        offer(best, id, lowerQuery, limit);
+                    }
+                }
+            }
+            if (best.size() < limit) {
+                // abbreviations like "exlst" share no trigram with the name
+                for (int id = 0; id < slots; id++) {
+                    if (matches[id] != null && counts[id] < threshold) {
+                        offer(best, id, lowerQuery, limit);
+                    }
+                }
+            }
+        }
+        ArrayList<Scored> sorted = new ArrayList<>(best);
+        sorted.sort(BEST_FIRST);
+        return sorted.stream().map(Scored::match).toList();
+    }
+
+    private void offer(PriorityQueue<Scored> best, int id, String lowerQuery, int limit) {
+        int score = score(matches[id].name(), lowerNames[id], lowerQuery);
+        if (score < 0) {
+            return;
+        }
+        best.add(new Scored(matches[id], score));
+        if (best.size() > limit) {
+            best.poll();
+        }
+    }
+
+    /**
+     * How well {@code name} matches the lowercase {@code query}, -1 if the
+     * query is not a subsequence of the name.
+     */
+    static int score(String name, String lower, String query) {
+        if (query.isEmpty()) {
+            return 0;
+        }
+        if (lower.equals(query)) {
+            return 4000;
+        }
+        if (lower.startsWith(query)) {
+            return 3000;
+        }
+        int index = lower.indexOf(query);
+        if (index >= 0) {
+            return 2000 + (isWordStart(name, index) ? 500 : 0) - Math.min(index, 499);
+        }
+        // subsequence, favouring characters that start a word and runs of characters
+        int score = 0;
+        int matched = 0;
+        int last = -2;
+        for (int i = 0; i < name.length() && matched < query.length(); i++) {
+            if (lower.charAt(i) != query.charAt(matched)) {
+                continue;
+            }
+            score += isWordStart(name, i) ? 10 : i == last + 1 ? 5 : 1;
+            last = i;
+            matched++;
+        }
+        return matched == query.length() ? Math.min(score, 1999) : -1;
+    }
+
+    private static boolean isWordStart(String name, int i) {
+        if (i == 0) {
+            return true;
+        }
+        char previous = name.charAt(i - 1);
+        char c = name.charAt(i);
+        return previous == '_' || (Character.isLowerCase(previous) && Character.isUpperCase(c));
+    }
+
+    private int add(Match match) {
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+        } else {
+            if (slots == matches.length) {
+                matches = Arrays.copyOf(matches, slots * 2);
+                lowerNames = Arrays.copyOf(lowerNames, slots * 2);
+            }
+            id = slots++;
+        }
+        matches[id] = match;
+        lowerNames[id] = match.name().toLowerCase(Locale.ROOT);
+        for (long trigram : trigrams(lowerNames[id])) {
+            postings.computeIfAbsent(trigram, t -> new Postings()).add(id);
+        }
+        size++;
+        return id;
+    }
+
+    private void release(int id) {
+        for (long trigram : trigrams(lowerNames[id])) {
+            Postings list = postings.get(trigram);
+            list.remove(id);
+            if (list.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+        matches[id] = null;
+        lowerNames[id] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = id;
+        size--;
+    }
+
+    /**
+     * Distinct trigrams of {@code text}, three chars packed into a long.
+     */
+    private static long[] trigrams(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] trigrams = new long[text.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+}
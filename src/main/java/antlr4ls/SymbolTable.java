@@ -0,0 +1,412 @@
+package antlr4ls;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.parse.ANTLRParser;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+import org.antlr.v4.tool.ast.RuleAST;
+
+/**
+ * Declarations and use sites of every rule, token, channel, mode and string
+ * literal in a grammar, built once per parse.
+ *
+ * Positions are stored as (line, column) pairs in plain int arrays. Each rule
+ * is collected into a fragment with lines relative to the rule start; when a
+ * document changes, fragments of rules whose text is unchanged are taken over
+ * from the previous table instead of walking their subtree again.
+ */
+public class SymbolTable {
+
+    public enum Kind {
+        RULE,
+        TOKEN,
+        CHANNEL,
+        MODE,
+        LITERAL
+    }
+
+    public static final class Symbol {
+
+        private final String name;
+        private final Kind kind;
+        private int[] declarations = new int[2];
+        private int declarationCount;
+        private int[] uses = new int[4];
+        private int useCount;
+
+        private Symbol(String name, Kind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public int declarationCount() {
+            return declarationCount;
+        }
+
+        public int declarationLine(int i) {
+            return declarations[2 * i];
+        }
+
+        public int declarationColumn(int i) {
+            return declarations[2 * i + 1];
+        }
+
+        public int useCount() {
+            return useCount;
+        }
+
+        public int useLine(int i) {
+            return uses[2 * i];
+        }
+
+        public int useColumn(int i) {
+            return uses[2 * i + 1];
+        }
+
+        private void addDeclaration(int line, int column) {
+            if (2 * declarationCount == declarations.length) {
+                declarations = Arrays.copyOf(declarations, declarations.length * 2);
+            }
+            declarations[2 * declarationCount] = line;
+            declarations[2 * declarationCount + 1] = column;
+            declarationCount++;
+        }
+
+        private void addUse(int line, int column) {
+            if (2 * useCount == uses.length) {
+                uses = Arrays.copyOf(uses, uses.length * 2);
+            }
+            uses[2 * useCount] = line;
+            uses[2 * useCount + 1] = column;
+            useCount++;
+        }
+    }
+
+    /**
+     * Occurrences inside a single rule. Lines are relative to the first line
+     * of the rule so the fragment stays valid if the rule moves.
+     */
+    private record Fragment(long hash, int length, int column, String[] names, int[] flags, int[] positions) {
+
+        private static final int DECLARATION = 1;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final SymbolTable EMPTY = new SymbolTable(new EnumMap<>(Kind.class), Map.of(), 0);
+
+    private final EnumMap<Kind, Map<String, Symbol>> symbols;
+    private final Map<Long, Fragment> fragments;
+    private final int reusedRules;
+
+    private volatile PrefixIndex prefixIndex;
+    // index of the table this one was built from, patched on first use
+    private PrefixIndex previousPrefixIndex;
+
+    private SymbolTable(EnumMap<Kind, Map<String, Symbol>> symbols, Map<Long, Fragment> fragments, int reusedRules) {
+        this.symbols = symbols;
+        this.fragments = fragments;
+        this.reusedRules = reusedRules;
+    }
+
+    public static SymbolTable empty() {
+        return EMPTY;
+    }
+
+    public static Kind kindOf(int tokenType) {
+        return switch (tokenType) {
+            case ANTLRParser.RULE_REF -> Kind.RULE;
+            case ANTLRParser.TOKEN_REF -> Kind.TOKEN;
+            case ANTLRParser.STRING_LITERAL -> Kind.LITERAL;
+            default -> null;
+        };
+    }
+
+    public Symbol lookup(Kind kind, String name) {
+        Map<String, Symbol> byName = symbols.get(kind);
+        return byName == null ? null : byName.get(name);
+    }
+
+    public Collection<Symbol> symbols(Kind kind) {
+        Map<String, Symbol> byName = symbols.get(kind);
+        return byName == null ? List.of() : byName.values();
+    }
+
+    /**
+     * Number of rules whose occurrences were taken over from the previous
+     * table without walking their subtree.
+     */
+    public int reusedRules() {
+        return reusedRules;
+    }
+
+    /**
+     * Declared rule, token, channel and mode names for prefix lookups.
+     */
+    public PrefixIndex prefixIndex() {
+        PrefixIndex index = prefixIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            if (prefixIndex == null) {
+                prefixIndex = previousPrefixIndex == null
+                    ? PrefixIndex.of(this)
+                    : PrefixIndex.update(previousPrefixIndex, this);
+                previousPrefixIndex = null;
+            }
+            return prefixIndex;
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        for (Kind kind : KINDS) {
+            Collection<Symbol> values = symbols(kind);
+            out.writeInt(values.size());
+            for (Symbol symbol : values) {
+                IndexCache.writeString(out, symbol.name);
+                out.writeInt(symbol.declarationCount);
+                for (int i = 0; i < 2 * symbol.declarationCount; i++) {
+                    out.writeInt(symbol.declarations[i]);
+                }
+                out.writeInt(symbol.useCount);
+                for (int i = 0; i < 2 * symbol.useCount; i++) {
+                    out.writeInt(symbol.uses[i]);
+                }
+            }
+        }
+    }
+
+    static SymbolTable read(ByteBuffer buffer) {
+        EnumMap<Kind, Map<String, Symbol>> symbols = new EnumMap<>(Kind.class);
+        for (Kind kind : KINDS) {
+            int count = IndexCache.readLength(buffer, 1);
+            if (count == 0) {
+                continue;
+            }
+            HashMap<String, Symbol> byName = HashMap.newHashMap(count);
+            for (int i = 0; i < count; i++) {
+                Symbol symbol = new Symbol(IndexCache.readString(buffer).intern(), kind);
+                symbol.declarationCount = IndexCache.readLength(buffer, 8);
+                symbol.declarations = readInts(buffer, 2 * symbol.declarationCount);
+                symbol.useCount = IndexCache.readLength(buffer, 8);
+                symbol.uses = readInts(buffer, 2 * symbol.useCount);
+                byName.put(symbol.name, symbol);
+            }
+            symbols.put(kind, byName);
+        }
+        return new SymbolTable(symbols, Map.of(), 0);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        // keep room for at least one pair so addDeclaration/addUse can grow it
+        int[] values = new int[Math.max(length, 2)];
+        buffer.asIntBuffer().get(values, 0, length);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+
+    public static SymbolTable build(GrammarRootAST rootAST, SymbolTable previous) {
+        if (rootAST == null) {
+            return EMPTY;
+        }
+        Builder builder = new Builder(rootAST.tokenStream, previous == null ? EMPTY : previous);
+        for (int i = 0; i < rootAST.getChildCount(); i++) {
+            Tree child = rootAST.getChild(i);
+            switch (child.getType()) {
+                case ANTLRParser.RULES -> builder.addRules(child, 0);
+                case ANTLRParser.MODE -> {
+                    builder.declare(child.getChild(0), Kind.MODE);
+                    builder.addRules(child, 1);
+                }
+                case ANTLRParser.TOKENS_SPEC -> builder.declareChildren(child, Kind.TOKEN);
+                case ANTLRParser.CHANNELS -> builder.declareChildren(child, Kind.CHANNEL);
+                default -> {
+                }
+            }
+        }
+        SymbolTable table = builder.build();
+        if (previous != null) {
+            table.previousPrefixIndex = previous.prefixIndex;
+        }
+        return table;
+    }
+
+    private static final class Builder {
+
+        private final TokenStream tokens;
+        private final SymbolTable previous;
+        private final EnumMap<Kind, Map<String, Symbol>> symbols = new EnumMap<>(Kind.class);
+        private final HashMap<Long, Fragment> fragments = new HashMap<>();
+        private int reusedRules;
+
+        // scratch buffers for the fragment currently being collected
+        private final ArrayList<String> names = new ArrayList<>();
+        private int[] flags = new int[16];
+        private int[] positions = new int[32];
+
+        Builder(TokenStream tokens, SymbolTable previous) {
+            this.tokens = tokens;
+            this.previous = previous;
+        }
+
+        void declare(Tree node, Kind kind) {
+            symbol(node.getText(), kind).addDeclaration(node.getLine() - 1, node.getCharPositionInLine());
+        }
+
+        void declareChildren(Tree parent, Kind kind) {
+            for (int i = 0; i < parent.getChildCount(); i++) {
+                declare(parent.getChild(i), kind);
+            }
+        }
+
+        void addRules(Tree parent, int from) {
+            for (int i = from; i < parent.getChildCount(); i++) {
+                if (parent.getChild(i) instanceof RuleAST rule) {
+                    addRule(rule);
+                }
+            }
+        }
+
+        private void addRule(RuleAST rule) {
+            if (rule.getTokenStartIndex() < 0 || rule.getTokenStopIndex() < rule.getTokenStartIndex()) {
+                // incomplete rule after a syntax error, nothing to reuse
+                merge(collect(rule, rule.getLine() - 1, 0, 0, 0), rule.getLine() - 1);
+                return;
+            }
+            Token startToken = tokens.get(rule.getTokenStartIndex());
+            Token stopToken = tokens.get(rule.getTokenStopIndex());
+            int startLine = startToken.getLine() - 1;
+            int column = startToken.getCharPositionInLine();
+            CharStream input = startToken.getInputStream();
+            int startIndex = ((CommonToken) startToken).getStartIndex();
+            int stopIndex = ((CommonToken) stopToken).getStopIndex();
+            long hash = hash(input, startIndex, stopIndex, column);
+            int length = stopIndex - startIndex + 1;
+
+            Fragment fragment = previous.fragments.get(hash);
+            if (fragment != null && fragment.length() == length && fragment.column() == column) {
+                reusedRules++;
+            } else {
+                fragment = collect(rule, startLine, hash, length, column);
+            }
+            fragments.put(hash, fragment);
+            merge(fragment, startLine);
+        }
+
+        private void merge(Fragment fragment, int startLine) {
+            for (int i = 0; i < fragment.names().length; i++) {
+                int flag = fragment.flags()[i];
+                Symbol symbol = symbol(fragment.names()[i], KINDS[flag >>> 1]);
+                int line = startLine + fragment.positions()[2 * i];
+                int col = fragment.positions()[2 * i + 1];
+                if ((flag & Fragment.DECLARATION) != 0) {
+                    symbol.addDeclaration(line, col);
+                } else {
+                    symbol.addUse(line, col);
+                }
+            }
+        }
+
+        private Fragment collect(RuleAST rule, int startLine, long hash, int length, int column) {
+            names.clear();
+            Tree name = rule.getChild(0);
+            add(name, kindOf(name.getType()), true, startLine);
+            for (int i = 1; i < rule.getChildCount(); i++) {
+                walk(rule.getChild(i), startLine);
+            }
+            int count = names.size();
+            return new Fragment(
+                hash,
+                length,
+                column,
+                names.toArray(String[]::new),
+                Arrays.copyOf(flags, count),
+                Arrays.copyOf(positions, 2 * count)
+            );
+        }
+
+        private void walk(Tree node, int startLine) {
+            switch (node.getType()) {
+                case ANTLRParser.RULE_REF, ANTLRParser.TOKEN_REF, ANTLRParser.STRING_LITERAL ->
+                    add(node, kindOf(node.getType()), false, startLine);
+                case ANTLRParser.LEXER_ACTION_CALL -> {
+                    Kind kind = switch (node.getChild(0).getText()) {
+                        case "type" -> Kind.TOKEN;
+                        case "channel" -> Kind.CHANNEL;
+                        case "mode", "pushMode" -> Kind.MODE;
+                        default -> null;
+                    };
+                    if (kind != null && node.getChildCount() > 1) {
+                        add(node.getChild(1), kind, false, startLine);
+                    }
+                    return;
+                }
+                default -> {
+                }
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                walk(node.getChild(i), startLine);
+            }
+        }
+
+        private void add(Tree node, Kind kind, boolean declaration, int startLine) {
+            if (kind == null) {
+                return;
+            }
+            int i = names.size();
+            if (i == flags.length) {
+                flags = Arrays.copyOf(flags, i * 2);
+                positions = Arrays.copyOf(positions, i * 4);
+            }
+            // interned, the index keeps the names of every grammar alive
+            names.add(node.getText().intern());
+            flags[i] = kind.ordinal() << 1 | (declaration ? Fragment.DECLARATION : 0);
+            positions[2 * i] = node.getLine() - 1 - startLine;
+            positions[2 * i + 1] = node.getCharPositionInLine();
+        }
+
+        private Symbol symbol(String name, Kind kind) {
+            return symbols
+                .computeIfAbsent(kind, k -> new HashMap<>())
+                .computeIfAbsent(name, n -> new Symbol(n.intern(), kind));
+        }
+
+        SymbolTable build() {
+            return new SymbolTable(symbols, fragments, reusedRules);
+        }
+
+        private static long hash(CharStream input, int start, int stop, int column) {
+            // 64-bit FNV-1a over the rule text, mixed with the start column
+            long hash = 0xcbf29ce484222325L ^ column;
+            String text = input.substring(start, stop);
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+}
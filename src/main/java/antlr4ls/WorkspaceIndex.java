@@ -0,0 +1,409 @@
+package antlr4ls;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.parse.ANTLRParser;
+import org.antlr.v4.tool.ast.GrammarRootAST;
+
+/**
+ * Symbols and dependencies of every grammar in the workspace.
+ *
+ * Only the symbol table and the import/tokenVocab edges of each file are
+ * kept, not the AST. Dependencies are resolved by grammar name, preferring a
+ * grammar in the same directory like the ANTLR tool does.
+ */
+public class WorkspaceIndex {
+
+    public record Entry(
+        Path path,
+        String name,
+        int grammarType,
+        List<String> imports,
+        String tokenVocab,
+        SymbolTable symbols,
+        FileStamp stamp) {
+
+        public String uri() {
+            return path.toUri().toString();
+        }
+
+        public List<String> dependencies() {
+            if (tokenVocab == null) {
+                return imports;
+            }
+            ArrayList<String> dependencies = new ArrayList<>(imports);
+            dependencies.add(tokenVocab);
+            return dependencies;
+        }
+
+        public Entry withStamp(FileStamp newStamp) {
+            return new Entry(path, name, grammarType, imports, tokenVocab, symbols, newStamp);
+        }
+    }
+
+    private static final Set<String> EXCLUDED_DIRECTORIES = Set.of(".git", "node_modules", "target");
+
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    // last entry from disk of the files whose entry comes from an editor buffer
+    private final ConcurrentHashMap<Path, Entry> diskEntries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Path>> byName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Path>> dependentsByName = new ConcurrentHashMap<>();
+    private final SymbolSearchIndex search = new SymbolSearchIndex();
+    private final BiConsumer<Path, Rope> onRead;
+
+    public WorkspaceIndex() {
+        this((path, text) -> {});
+    }
+
+    /**
+     * {@code onRead} gets the text of every file indexed from disk, so it
+     * needn't be read again.
+     */
+    public WorkspaceIndex(BiConsumer<Path, Rope> onRead) {
+        this.onRead = onRead;
+    }
+
+    /**
+     * Entry for a parsed grammar. {@code stamp} is null if the grammar came
+     * from an editor buffer rather than from disk.
+     */
+    public static Entry entry(Path path, ParsedGrammar parsed, FileStamp stamp) {
+        GrammarRootAST ast = parsed.ast();
+        if (ast == null) {
+            return new Entry(path, null, 0, List.of(), null, parsed.symbols(), stamp);
+        }
+        ArrayList<String> imports = new ArrayList<>();
+        for (int i = 0; i < ast.getChildCount(); i++) {
+            Tree child = ast.getChild(i);
+            if (child.getType() != ANTLRParser.IMPORT) {
+                continue;
+            }
+            for (int j = 0; j < child.getChildCount(); j++) {
+                Tree imported = child.getChild(j);
+                // import Alias=Grammar;
+                if (imported.getType() == ANTLRParser.ASSIGN) {
+                    imported = imported.getChild(1);
+                }
+                imports.add(imported.getText());
+            }
+        }
+        return new Entry(
+            path,
+            ast.getGrammarName(),
+            ast.grammarType,
+            List.copyOf(imports),
+            ast.getOptionString("tokenVocab"),
+            parsed.symbols(),
+            stamp
+        );
+    }
+
+    /**
+     * Indexes all grammars below the given folders. Files with an entry whose
+     * size and modification time still match are skipped, entries of files
+     * that no longer exist are dropped. Paths that can't be read are passed
+     * to {@code skipped}.
+     */
+    public CompletableFuture<Void> indexFolders(
+            Collection<Path> folders,
+            Executor executor,
+            BiConsumer<Path, IOException> skipped) {
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path folder : folders) {
+            files.addAll(findGrammars(folder, skipped));
+        }
+        for (Entry entry : entries.values()) {
+            boolean inFolders = folders.stream().anyMatch(folder -> entry.path().startsWith(folder));
+            if (entry.stamp() != null && inFolders && !files.contains(entry.path())) {
+                remove(entry.path());
+            }
+        }
+        CompletableFuture<?>[] futures = files.stream()
+            .map(file -> CompletableFuture.runAsync(() -> {
+                Entry entry = entries.get(file);
+                if (entry == null || (entry.stamp() != null && !entry.stamp().isCurrent(file))) {
+                    index(file);
+                }
+            }, executor))
+            .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    public static List<Path> findGrammars(Path folder) {
+        return findGrammars(folder, (path, ex) -> {});
+    }
+
+    /**
+     * Grammars below {@code folder}, leaving out VCS metadata, build output
+     * and dependencies. Directories and files that can't be read are passed
+     * to {@code skipped} and the walk goes on.
+     */
+    public static List<Path> findGrammars(Path folder, BiConsumer<Path, IOException> skipped) {
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        ArrayList<Path> grammars = new ArrayList<>();
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    boolean excluded = !dir.equals(folder) && EXCLUDED_DIRECTORIES.contains(dir.getFileName().toString());
+                    return excluded ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && file.getFileName().toString().endsWith(".g4")) {
+                        grammars.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    skipped.accept(file, ex);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                    if (ex != null) {
+                        skipped.accept(dir, ex);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            // the visitor doesn't throw, only a failure on the folder itself ends up here
+            skipped.accept(folder, ex);
+        }
+        return grammars;
+    }
+
+    /**
+     * Indexes the file from disk unless its entry comes from an open editor
+     * buffer. If only the modification time changed the existing symbols are
+     * kept.
+     */
+    public Entry index(Path path) {
+        Entry existing = entries.get(path);
+        if (existing != null && existing.stamp() == null) {
+            return existing;
+        }
+        return refresh(path);
+    }
+
+    /**
+     * Indexes the file from disk, replacing any entry from an editor buffer.
+     */
+    public Entry refresh(Path path) {
+        byte[] content;
+        FileStamp stamp;
+        try {
+            content = Files.readAllBytes(path);
+            stamp = FileStamp.of(path, content);
+        } catch (IOException ex) {
+            remove(path);
+            return null;
+        }
+        Rope text = Rope.of(new String(content, StandardCharsets.UTF_8));
+        Entry existing = entries.get(path);
+        Entry entry;
+        if (existing != null && existing.stamp() != null && existing.stamp().hash() == stamp.hash()) {
+            entry = existing.withStamp(stamp);
+        } else {
+            entry = entry(path, ParsedGrammar.parse(path.toString(), text), stamp);
+        }
+        put(entry);
+        onRead.accept(path, text);
+        return entry;
+    }
+
+    public synchronized void put(Entry entry) {
+        Entry previous = entries.put(entry.path(), entry);
+        if (previous != null) {
+            unlink(previous);
+        }
+        if (entry.stamp() != null) {
+            diskEntries.remove(entry.path());
+        } else if (previous != null && previous.stamp() != null) {
+            diskEntries.put(entry.path(), previous);
+        }
+        if (previous == null || previous.symbols() != entry.symbols() || !Objects.equals(previous.name(), entry.name())) {
+            search.update(entry.path(), entry.name(), entry.symbols());
+        }
+        if (entry.name() != null) {
+            byName.computeIfAbsent(entry.name(), k -> ConcurrentHashMap.newKeySet()).add(entry.path());
+        }
+        for (String dependency : entry.dependencies()) {
+            dependentsByName.computeIfAbsent(dependency, k -> ConcurrentHashMap.newKeySet()).add(entry.path());
+        }
+    }
+
+    public synchronized void remove(Path path) {
+        Entry previous = entries.remove(path);
+        if (previous != null) {
+            unlink(previous);
+        }
+        diskEntries.remove(path);
+        search.remove(path);
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.name() != null) {
+            Set<Path> paths = byName.get(entry.name());
+            if (paths != null) {
+                paths.remove(entry.path());
+            }
+        }
+        for (String dependency : entry.dependencies()) {
+            Set<Path> paths = dependentsByName.get(dependency);
+            if (paths != null) {
+                paths.remove(entry.path());
+            }
+        }
+    }
+
+    public Entry get(Path path) {
+        return entries.get(path);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Declared names of all indexed grammars for fuzzy lookups.
+     */
+    public SymbolSearchIndex search() {
+        return search;
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Entries as of the files on disk: an entry from an editor buffer is
+     * replaced by the one it replaced, or left out if there was none.
+     */
+    public List<Entry> diskEntries() {
+        ArrayList<Entry> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            Entry onDisk = entry.stamp() != null ? entry : diskEntries.get(entry.path());
+            if (onDisk != null) {
+                result.add(onDisk);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a grammar referenced from {@code from} by name: the candidate
+     * with the shortest path relative to its directory, so one in the same
+     * directory first, ties broken by path.
+     */
+    public Entry resolve(String name, Path from) {
+        Set<Path> candidates = byName.get(name);
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        Path dir = from.getParent();
+        Path best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (Path candidate : candidates) {
+            int distance = distance(dir, candidate);
+            if (distance < bestDistance || (distance == bestDistance && candidate.compareTo(best) < 0)) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        return best == null ? null : entries.get(best);
+    }
+
+    private static int distance(Path dir, Path candidate) {
+        if (dir == null || dir.isAbsolute() != candidate.isAbsolute() || !Objects.equals(dir.getRoot(), candidate.getRoot())) {
+            return Integer.MAX_VALUE - 1;
+        }
+        return dir.relativize(candidate).getNameCount();
+    }
+
+    /**
+     * Grammars that {@code path} imports or takes its token vocabulary from,
+     * transitively, closest first.
+     */
+    public List<Entry> dependencies(Path path) {
+        LinkedHashSet<Path> seen = new LinkedHashSet<>();
+        ArrayDeque<Path> queue = new ArrayDeque<>();
+        seen.add(path);
+        queue.add(path);
+        ArrayList<Entry> result = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Entry entry = entries.get(queue.poll());
+            if (entry == null) {
+                continue;
+            }
+            for (String name : entry.dependencies()) {
+                Entry dependency = resolve(name, entry.path());
+                if (dependency != null && seen.add(dependency.path())) {
+                    result.add(dependency);
+                    queue.add(dependency.path());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Grammars that depend on {@code path}, transitively.
+     */
+    public List<Entry> dependents(Path path) {
+        LinkedHashSet<Path> seen = new LinkedHashSet<>();
+        ArrayDeque<Path> queue = new ArrayDeque<>();
+        seen.add(path);
+        queue.add(path);
+        ArrayList<Entry> result = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Path current = queue.poll();
+            Entry entry = entries.get(current);
+            if (entry == null || entry.name() == null) {
+                continue;
+            }
+            Set<Path> candidates = dependentsByName.getOrDefault(entry.name(), Set.of());
+            for (Path candidate : candidates) {
+                Entry dependent = entries.get(candidate);
+                if (dependent == null || seen.contains(candidate)) {
+                    continue;
+                }
+                // another grammar with the same name may be the one it actually uses
+                boolean usesThis = dependent.dependencies().stream()
+                    .map(name -> resolve(name, candidate))
+                    .anyMatch(resolved -> resolved != null && resolved.path().equals(current));
+                if (usesThis) {
+                    seen.add(candidate);
+                    result.add(dependent);
+                    queue.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+}
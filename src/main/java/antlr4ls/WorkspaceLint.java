@@ -0,0 +1,127 @@
+package antlr4ls;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Lints a list of files in the background, in the given order.
+ *
+ * A fixed number of workers take files from a shared queue and submit one
+ * file per task, so lint jobs of edited documents queued on the same
+ * executor run in between rather than after the whole workspace. While
+ * {@code busy} reports interactive work the workers back off.
+ */
+public class WorkspaceLint {
+
+    public interface Progress {
+
+        void report(int done, int total);
+    }
+
+    private static final long BACKOFF_MILLIS = 20;
+
+    private final ConcurrentLinkedQueue<Path> queue;
+    private final int total;
+    private final int workers;
+    private final Executor executor;
+    private final Executor backoff;
+    private final BooleanSupplier busy;
+    private final Consumer<Path> lint;
+    private final Progress progress;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final CompletableFuture<Integer> finished = new CompletableFuture<>();
+    private volatile boolean cancelled;
+
+    public WorkspaceLint(
+            List<Path> files,
+            Executor executor,
+            int workers,
+            BooleanSupplier busy,
+            Consumer<Path> lint,
+            Progress progress) {
+        this.queue = new ConcurrentLinkedQueue<>(files);
+        this.total = files.size();
+        this.workers = Math.max(1, Math.min(workers, files.size()));
+        this.executor = executor;
+        this.backoff = CompletableFuture.delayedExecutor(BACKOFF_MILLIS, TimeUnit.MILLISECONDS, executor);
+        this.busy = busy;
+        this.lint = lint;
+        this.progress = progress;
+    }
+
+    /**
+     * Starts the workers, the result completes with the number of files
+     * linted once the queue is drained or the run is cancelled.
+     */
+    public CompletableFuture<Integer> start() {
+        if (total == 0) {
+            finished.complete(0);
+            return finished;
+        }
+        running.set(workers);
+        for (int i = 0; i < workers; i++) {
+            submit(executor);
+        }
+        return finished;
+    }
+
+    /**
+     * Stops after the files currently being linted.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Files not taken from the queue yet.
+     */
+    public List<Path> remaining() {
+        return List.copyOf(queue);
+    }
+
+    private void next() {
+        if (cancelled) {
+            stop();
+            return;
+        }
+        if (busy.getAsBoolean()) {
+            submit(backoff);
+            return;
+        }
+        Path file = queue.poll();
+        if (file == null) {
+            stop();
+            return;
+        }
+        try {
+            lint.accept(file);
+        } finally {
+            progress.report(done.incrementAndGet(), total);
+            submit(executor);
+        }
+    }
+
+    private void submit(Executor target) {
+        try {
+            target.execute(this::next);
+        } catch (RejectedExecutionException ex) {
+            // shutting down
+            stop();
+        }
+    }
+
+    private void stop() {
+        if (running.decrementAndGet() == 0) {
+            finished.complete(done.get());
+        }
+    }
+}
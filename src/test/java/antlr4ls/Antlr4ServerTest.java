@@ -4,18 +4,37 @@ package antlr4ls;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import com.google.gson.JsonObject;
+
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.CompletionItem;
+import org.eclipse.lsp4j.CompletionParams;
 import org.eclipse.lsp4j.DefinitionParams;
 import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
 import org.eclipse.lsp4j.DidSaveTextDocumentParams;
+import org.eclipse.lsp4j.DocumentSymbol;
+import org.eclipse.lsp4j.DocumentSymbolParams;
+import org.eclipse.lsp4j.FileChangeType;
+import org.eclipse.lsp4j.FileEvent;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.HoverParams;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
+import org.eclipse.lsp4j.InitializedParams;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.LocationLink;
 import org.eclipse.lsp4j.MarkupContent;
@@ -23,25 +42,67 @@ import org.eclipse.lsp4j.MarkupKind;
 import org.eclipse.lsp4j.MessageActionItem;
 import org.eclipse.lsp4j.MessageParams;
 import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.PrepareRenameParams;
+import org.eclipse.lsp4j.ProgressParams;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.ReferenceContext;
 import org.eclipse.lsp4j.ReferenceParams;
+import org.eclipse.lsp4j.RenameParams;
+import org.eclipse.lsp4j.SemanticTokensDeltaParams;
+import org.eclipse.lsp4j.SemanticTokensParams;
 import org.eclipse.lsp4j.ShowMessageRequestParams;
+import org.eclipse.lsp4j.SymbolKind;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.TextDocumentSyncKind;
+import org.eclipse.lsp4j.TextEdit;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.eclipse.lsp4j.WindowClientCapabilities;
+import org.eclipse.lsp4j.WorkDoneProgressBegin;
+import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
+import org.eclipse.lsp4j.WorkDoneProgressEnd;
+import org.eclipse.lsp4j.WorkspaceFolder;
+import org.eclipse.lsp4j.WorkspaceSymbol;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.TextDocumentService;
 import org.junit.jupiter.api.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 public class Antlr4ServerTest {
 
     static class TestClient implements LanguageClient {
 
-        List<PublishDiagnosticsParams> diagnosticsParams = new ArrayList<>();
+        List<PublishDiagnosticsParams> diagnosticsParams = new CopyOnWriteArrayList<>();
+        List<ProgressParams> progress = new CopyOnWriteArrayList<>();
+        List<Object> telemetry = new CopyOnWriteArrayList<>();
+        List<String> log = new CopyOnWriteArrayList<>();
+
+        List<PublishDiagnosticsParams> awaitDiagnostics(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (diagnosticsParams.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            return diagnosticsParams;
+        }
+
+        void awaitLog(String text) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (log.stream().noneMatch(message -> message.contains(text)) && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(log).anyMatch(message -> message.contains(text));
+        }
 
         @Override
         public void telemetryEvent(Object object) {
+            telemetry.add(object);
         }
 
         @Override
@@ -60,6 +121,17 @@ public class Antlr4ServerTest {
 
         @Override
         public void logMessage(MessageParams message) {
+            log.add(message.getMessage());
+        }
+
+        @Override
+        public CompletableFuture<Void> createProgress(WorkDoneProgressCreateParams params) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void notifyProgress(ProgressParams params) {
+            progress.add(params);
         }
     }
 
@@ -77,11 +149,37 @@ public class Antlr4ServerTest {
         String uri = resource.toString();
         textDocumentService.didSave(new DidSaveTextDocumentParams(new TextDocumentIdentifier(uri)));
 
-        assertThat(client.diagnosticsParams).hasSize(1);
-        List<Diagnostic> diagnostics = client.diagnosticsParams.get(0).getDiagnostics();
+        // syntax stage first, then the semantic stage that finds the unresolved reference
+        assertThat(client.awaitDiagnostics(2)).hasSize(2);
+        assertThat(client.diagnosticsParams.get(0).getDiagnostics()).isEmpty();
+        List<Diagnostic> diagnostics = client.diagnosticsParams.get(1).getDiagnostics();
         assertThat(diagnostics).hasSize(1);
     }
 
+    @Test
+    public void test_semantic_lint_is_skipped_for_large_files() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        var options = new JsonObject();
+        options.addProperty("semanticLintMaxSize", 10);
+        var initializeParams = new InitializeParams();
+        initializeParams.setInitializationOptions(options);
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        URL resource = Antlr4ServerTest.class.getClassLoader().getResource("WrongRefSample.g4");
+        String uri = resource.toString();
+        textDocumentService.didSave(new DidSaveTextDocumentParams(new TextDocumentIdentifier(uri)));
+
+        // the lint logs once it is done, nothing is published after that
+        client.awaitLog("semantic skipped");
+        assertThat(client.diagnosticsParams).hasSize(1);
+        assertThat(client.diagnosticsParams.get(0).getDiagnostics()).isEmpty();
+        assertThat(server.documents().stats().processMisses()).isZero();
+    }
+
     @Test
     public void test_hover() throws Exception {
         Antlr4Server server = new Antlr4Server();
@@ -192,4 +290,589 @@ public class Antlr4ServerTest {
         assertThat(referencesResult).succeedsWithin(1, TimeUnit.SECONDS)
             .satisfies(locations -> assertThat(locations).hasSize(1));
     }
+
+    @Test
+    public void test_parse_is_cached_until_document_changes() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        CompletableFuture<InitializeResult> initialize = server.initialize(new InitializeParams());
+        assertThat(initialize).succeedsWithin(1, TimeUnit.SECONDS);
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        URL resource = Antlr4ServerTest.class.getClassLoader().getResource("Interpreter.g4");
+        String uri = resource.toString();
+        var textDocument = new TextDocumentIdentifier(uri);
+        textDocumentService.didSave(new DidSaveTextDocumentParams(textDocument));
+        client.awaitDiagnostics(1);
+
+        Position position = new Position(8, 7);
+        assertThat(textDocumentService.hover(new HoverParams(textDocument, position))).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(textDocumentService.definition(new DefinitionParams(textDocument, position))).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.documents().stats().parseMisses()).isEqualTo(1L);
+        assertThat(server.documents().stats().parseHits()).isGreaterThanOrEqualTo(2L);
+
+        textDocumentService.didSave(new DidSaveTextDocumentParams(textDocument));
+        assertThat(textDocumentService.hover(new HoverParams(textDocument, position))).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.documents().stats().parseMisses()).isEqualTo(2L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_uses_in_memory_buffer_with_incremental_changes() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        CompletableFuture<InitializeResult> initialize = server.initialize(new InitializeParams());
+        assertThat(initialize).succeedsWithin(1, TimeUnit.SECONDS)
+            .extracting(result -> result.getCapabilities().getTextDocumentSync().getRight().getChange())
+            .isEqualTo(TextDocumentSyncKind.Incremental);
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        String uri = "file:///tmp/does-not-exist/Unsaved.g4";
+        String text = """
+            grammar Unsaved;
+
+            start
+                : value EOF
+                ;
+
+            value: INT;
+            INT: [0-9]+;
+            """;
+        textDocumentService.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, "antlr", 1, text)));
+        assertThat(client.awaitDiagnostics(1)).hasSize(1);
+        assertThat(client.diagnosticsParams.get(0).getDiagnostics()).isEmpty();
+
+        var change = new TextDocumentContentChangeEvent(
+            new Range(new Position(3, 6), new Position(3, 11)), "number");
+        var document = new VersionedTextDocumentIdentifier(uri, 2);
+        textDocumentService.didChange(new DidChangeTextDocumentParams(document, List.of(change)));
+        change = new TextDocumentContentChangeEvent(
+            new Range(new Position(6, 0), new Position(6, 5)), "number");
+        textDocumentService.didChange(new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(uri, 3), List.of(change)));
+
+        var textDocument = new TextDocumentIdentifier(uri);
+        var definition = textDocumentService.definition(new DefinitionParams(textDocument, new Position(3, 8)));
+        assertThat(definition).succeedsWithin(1, TimeUnit.SECONDS)
+            .extracting(either -> either.getLeft())
+            .satisfies(locations -> assertThat((List<Location>) locations).containsExactly(
+                new Location(uri, new Range(new Position(6, 0), new Position(6, 6)))
+            ));
+    }
+
+    @Test
+    public void test_requests_run_against_document_they_were_sent_for() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        assertThat(server.initialize(new InitializeParams())).succeedsWithin(1, TimeUnit.SECONDS);
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        String uri = "file:///tmp/does-not-exist/Unsaved.g4";
+        String text = "grammar Unsaved;\nstart: value EOF;\nvalue: INT;\nINT: [0-9]+;\n";
+        textDocumentService.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, "antlr", 1, text)));
+
+        var textDocument = new TextDocumentIdentifier(uri);
+        ArrayList<CompletableFuture<Hover>> hovers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            hovers.add(textDocumentService.hover(new HoverParams(textDocument, new Position(1, 8))));
+        }
+        var change = new TextDocumentContentChangeEvent(new Range(new Position(1, 7), new Position(1, 12)), "number");
+        textDocumentService.didChange(new DidChangeTextDocumentParams(
+            new VersionedTextDocumentIdentifier(uri, 2), List.of(change)));
+
+        for (var hover : hovers) {
+            assertThat(hover).succeedsWithin(1, TimeUnit.SECONDS)
+                .extracting(result -> result.getContents().getRight().getValue())
+                .isEqualTo("value");
+        }
+        assertThat(textDocumentService.hover(new HoverParams(textDocument, new Position(1, 8))))
+            .succeedsWithin(1, TimeUnit.SECONDS)
+            .extracting(result -> result.getContents().getRight().getValue())
+            .isEqualTo("number");
+    }
+
+    @Test
+    public void test_semantic_tokens_delta_against_previous_result() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        server.connect(new TestClient());
+
+        assertThat(server.initialize(new InitializeParams())).succeedsWithin(1, TimeUnit.SECONDS)
+            .extracting(result -> result.getCapabilities().getSemanticTokensProvider().getFull().getRight().getDelta())
+            .isEqualTo(true);
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        String uri = "file:///tmp/does-not-exist/Unsaved.g4";
+        String text = "grammar Unsaved;\nstart: value EOF;\nvalue: INT;\nINT: [0-9]+;\n";
+        textDocumentService.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, "antlr", 1, text)));
+        var textDocument = new TextDocumentIdentifier(uri);
+
+        var full = textDocumentService.semanticTokensFull(new SemanticTokensParams(textDocument)).get(1, TimeUnit.SECONDS);
+        assertThat(full.getData()).hasSize(5 * 9);
+
+        var change = new TextDocumentContentChangeEvent(new Range(new Position(2, 7), new Position(2, 10)), "INT INT");
+        textDocumentService.didChange(new DidChangeTextDocumentParams(
+            new VersionedTextDocumentIdentifier(uri, 2), List.of(change)));
+        var delta = textDocumentService.semanticTokensFullDelta(
+            new SemanticTokensDeltaParams(textDocument, full.getResultId())).get(1, TimeUnit.SECONDS);
+        assertThat(delta.isRight()).isTrue();
+        assertThat(delta.getRight().getResultId()).isNotEqualTo(full.getResultId());
+        assertThat(delta.getRight().getEdits()).singleElement()
+            .satisfies(edit -> assertThat(edit.getData()).hasSizeLessThanOrEqualTo(10));
+
+        var unknown = textDocumentService.semanticTokensFullDelta(
+            new SemanticTokensDeltaParams(textDocument, "unknown")).get(1, TimeUnit.SECONDS);
+        assertThat(unknown.getLeft().getData()).hasSize(5 * 10);
+    }
+
+    @Test
+    public void test_lint_coalesces_edits_and_publishes_latest_version() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        var options = new JsonObject();
+        options.addProperty("lintDebounceMillis", 50);
+        var initializeParams = new InitializeParams();
+        initializeParams.setInitializationOptions(options);
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        String uri = "file:///tmp/does-not-exist/Edits.g4";
+        textDocumentService.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, "antlr", 1, "grammar Edits;\nstart: ;\n")));
+        client.awaitDiagnostics(1);
+
+        for (int version = 2; version <= 20; version++) {
+            var change = new TextDocumentContentChangeEvent(
+                new Range(new Position(1, 7), new Position(1, 7)), " missing" + version);
+            var document = new VersionedTextDocumentIdentifier(uri, version);
+            textDocumentService.didChange(new DidChangeTextDocumentParams(document, List.of(change)));
+        }
+
+        // older versions are superseded, so the lint of the last one is the last to publish
+        client.awaitLog(" v20: ");
+        List<PublishDiagnosticsParams> published = client.diagnosticsParams;
+        assertThat(published).hasSize(3);
+        assertThat(published.get(2).getVersion()).isEqualTo(20);
+        assertThat(published.get(2).getDiagnostics()).isNotEmpty();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_definition_and_references_across_split_grammars() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        Path folder = Path.of(Antlr4ServerTest.class.getClassLoader().getResource("split").toURI());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "split")));
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+        assertThat(server.workspace().size()).isEqualTo(3);
+
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        String parserUri = folder.resolve("CalcParser.g4").toUri().toString();
+        String lexerUri = folder.resolve("CalcLexer.g4").toUri().toString();
+        String commonUri = folder.resolve("CommonLexer.g4").toUri().toString();
+        var parser = new TextDocumentIdentifier(parserUri);
+
+        // PLUS comes from the tokenVocab, INT from a grammar the lexer imports
+        var plus = textDocumentService.definition(new DefinitionParams(parser, new Position(10, 19)));
+        assertThat(plus).succeedsWithin(1, TimeUnit.SECONDS)
+            .extracting(either -> either.getLeft())
+            .satisfies(locations -> assertThat((List<Location>) locations).containsExactly(
+                new Location(lexerUri, new Range(new Position(4, 0), new Position(4, 4)))
+            ));
+        var integer = textDocumentService.definition(new DefinitionParams(parser, new Position(9, 6)));
+        assertThat(integer).succeedsWithin(1, TimeUnit.SECONDS)
+            .extracting(either -> either.getLeft())
+            .satisfies(locations -> assertThat((List<Location>) locations).containsExactly(
+                new Location(commonUri, new Range(new Position(2, 0), new Position(2, 3)))
+            ));
+
+        var common = new TextDocumentIdentifier(commonUri);
+        var references = textDocumentService.references(
+            new ReferenceParams(common, new Position(2, 1), new ReferenceContext(true)));
+        assertThat(references).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(locations -> assertThat((List<Location>) locations).containsExactlyInAnyOrder(
+                new Location(commonUri, new Range(new Position(2, 0), new Position(2, 3))),
+                new Location(parserUri, new Range(new Position(9, 6), new Position(9, 9)))
+            ));
+    }
+
+    @Test
+    public void test_completion_includes_tokens_from_token_vocab() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        Path folder = Path.of(Antlr4ServerTest.class.getClassLoader().getResource("split").toURI());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "split")));
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+
+        var parser = new TextDocumentIdentifier(folder.resolve("CalcParser.g4").toUri().toString());
+        var completion = server.getTextDocumentService().completion(new CompletionParams(parser, new Position(10, 7)));
+        assertThat(completion).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(result -> {
+                List<CompletionItem> items = result.getRight().getItems();
+                assertThat(items).extracting(CompletionItem::getLabel).containsExactly("expression", "EOF");
+            });
+
+        completion = server.getTextDocumentService().completion(new CompletionParams(parser, new Position(9, 6)));
+        assertThat(completion).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(result -> {
+                List<CompletionItem> items = result.getRight().getItems();
+                assertThat(items).extracting(CompletionItem::getLabel).contains("start", "INT", "PLUS", "EOF");
+                assertThat(items).filteredOn(item -> item.getLabel().equals("INT"))
+                    .extracting(CompletionItem::getDetail).containsExactly("token from CommonLexer");
+            });
+    }
+
+    @Test
+    public void test_completion_of_unreadable_file_is_empty() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        server.connect(new TestClient());
+        assertThat(server.initialize(new InitializeParams())).succeedsWithin(1, TimeUnit.SECONDS);
+
+        var missing = new TextDocumentIdentifier("file:///tmp/does-not-exist/Missing.g4");
+        var completion = server.getTextDocumentService().completion(new CompletionParams(missing, new Position(0, 0)));
+        assertThat(completion).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(result -> assertThat(result.getRight().getItems()).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_workspace_symbols_follow_buffer_changes() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        Path folder = Path.of(Antlr4ServerTest.class.getClassLoader().getResource("split").toURI());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "split")));
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+
+        var workspaceService = server.getWorkspaceService();
+        String parserUri = folder.resolve("CalcParser.g4").toUri().toString();
+        String commonUri = folder.resolve("CommonLexer.g4").toUri().toString();
+        assertThat(workspaceService.symbol(new WorkspaceSymbolParams("int"))).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(result -> assertThat((List<WorkspaceSymbol>) result.getRight()).containsExactly(
+                new WorkspaceSymbol("INT", SymbolKind.Constant,
+                    Either.forLeft(new Location(commonUri, new Range(new Position(2, 0), new Position(2, 3)))),
+                    "CommonLexer")
+            ));
+
+        String text = Files.readString(folder.resolve("CalcParser.g4"));
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        textDocumentService.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(parserUri, "antlr", 1, text)));
+        var change = new TextDocumentContentChangeEvent(new Range(new Position(12, 0), new Position(12, 0)), "\nterm: INT;\n");
+        textDocumentService.didChange(new DidChangeTextDocumentParams(
+            new VersionedTextDocumentIdentifier(parserUri, 2), List.of(change)));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<? extends WorkspaceSymbol> symbols = List.of();
+        while (symbols.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            symbols = workspaceService.symbol(new WorkspaceSymbolParams("term")).get().getRight();
+        }
+        assertThat(symbols).extracting(WorkspaceSymbol::getName).containsExactly("term");
+
+        var outline = textDocumentService.documentSymbol(new DocumentSymbolParams(new TextDocumentIdentifier(parserUri)));
+        assertThat(outline).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(result -> {
+                List<DocumentSymbol> rules = result.stream().map(Either::getRight).toList();
+                assertThat(rules).extracting(DocumentSymbol::getName).containsExactly("start", "expression", "term");
+                assertThat(rules.get(1).getRange()).isEqualTo(new Range(new Position(8, 0), new Position(11, 5)));
+                assertThat(rules.get(1).getSelectionRange()).isEqualTo(new Range(new Position(8, 0), new Position(8, 10)));
+            });
+    }
+
+    @Test
+    public void test_rename_token_across_split_grammars() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        Path folder = Path.of(Antlr4ServerTest.class.getClassLoader().getResource("split").toURI());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "split")));
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+
+        TextDocumentService textDocumentService = server.getTextDocumentService();
+        String parserUri = folder.resolve("CalcParser.g4").toUri().toString();
+        String commonUri = folder.resolve("CommonLexer.g4").toUri().toString();
+        var parser = new TextDocumentIdentifier(parserUri);
+
+        var prepare = textDocumentService.prepareRename(new PrepareRenameParams(parser, new Position(9, 7)));
+        assertThat(prepare).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(result -> {
+                assertThat(result.getSecond().getRange()).isEqualTo(new Range(new Position(9, 6), new Position(9, 9)));
+                assertThat(result.getSecond().getPlaceholder()).isEqualTo("INT");
+            });
+        // EOF is not declared anywhere
+        assertThat(textDocumentService.prepareRename(new PrepareRenameParams(parser, new Position(5, 18))))
+            .succeedsWithin(1, TimeUnit.SECONDS)
+            .isNull();
+
+        var rename = textDocumentService.rename(new RenameParams(parser, new Position(9, 7), "NUMBER"));
+        assertThat(rename).succeedsWithin(1, TimeUnit.SECONDS)
+            .satisfies(edit -> assertThat(edit.getChanges()).isEqualTo(Map.of(
+                commonUri, List.of(new TextEdit(new Range(new Position(2, 0), new Position(2, 3)), "NUMBER")),
+                parserUri, List.of(new TextEdit(new Range(new Position(9, 6), new Position(9, 9)), "NUMBER"))
+            )));
+
+        var invalid = textDocumentService.rename(new RenameParams(parser, new Position(9, 7), "number"));
+        assertThat(invalid).failsWithin(1, TimeUnit.SECONDS)
+            .withThrowableOfType(ExecutionException.class)
+            .withMessageContaining("Token names must start with an uppercase letter");
+    }
+
+    @Test
+    public void test_lints_workspace_in_background_with_progress() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        Path folder = Path.of(Antlr4ServerTest.class.getClassLoader().getResource("split").toURI());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "split")));
+        var options = new JsonObject();
+        options.addProperty("lintWorkspace", true);
+        initializeParams.setInitializationOptions(options);
+        var window = new WindowClientCapabilities();
+        window.setWorkDoneProgress(true);
+        var capabilities = new ClientCapabilities();
+        capabilities.setWindow(window);
+        initializeParams.setCapabilities(capabilities);
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+        server.initialized(new InitializedParams());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.progress.stream().noneMatch(p -> p.getValue().getLeft() instanceof WorkDoneProgressEnd)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(server.workspaceLinted()).succeedsWithin(1, TimeUnit.SECONDS).isEqualTo(3);
+        assertThat(client.diagnosticsParams)
+            .extracting(PublishDiagnosticsParams::getUri)
+            .contains(
+                folder.resolve("CalcParser.g4").toUri().toString(),
+                folder.resolve("CalcLexer.g4").toUri().toString(),
+                folder.resolve("CommonLexer.g4").toUri().toString());
+        assertThat(client.progress.getFirst().getValue().getLeft()).isInstanceOf(WorkDoneProgressBegin.class);
+        assertThat(client.progress.getLast().getValue().getLeft()).isInstanceOf(WorkDoneProgressEnd.class);
+
+        // nothing changed on disk, nothing to lint again
+        assertThat(server.lintWorkspace()).succeedsWithin(1, TimeUnit.SECONDS).isEqualTo(0);
+    }
+
+    @Test
+    public void test_watched_file_changes_reindex_only_changed_file() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        Path folder = Files.createTempDirectory("antlr4ls");
+        Files.writeString(folder.resolve("A.g4"), "grammar A;\nstart: B;\nB: 'b';\n");
+        Files.writeString(folder.resolve("Other.g4"), "grammar Other;\nother: X;\nX: 'x';\n");
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "tmp")));
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+        WorkspaceIndex.Entry other = server.workspace().get(folder.resolve("Other.g4"));
+
+        Path file = folder.resolve("A.g4");
+        Files.writeString(file, "grammar A;\nstart: C;\nC: 'c';\n");
+        server.getWorkspaceService().didChangeWatchedFiles(new DidChangeWatchedFilesParams(List.of(
+            new FileEvent(file.toUri().toString(), FileChangeType.Changed))));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.workspace().get(file).symbols().lookup(SymbolTable.Kind.TOKEN, "C") == null
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(server.workspace().get(file).symbols().lookup(SymbolTable.Kind.TOKEN, "B")).isNull();
+        assertThat(server.workspace().get(folder.resolve("Other.g4"))).isSameAs(other);
+
+        server.getWorkspaceService().didChangeWatchedFiles(new DidChangeWatchedFilesParams(List.of(
+            new FileEvent(file.toUri().toString(), FileChangeType.Deleted))));
+        assertThat(server.workspace().get(file)).isNull();
+    }
+
+    @Test
+    public void test_index_cache_is_loaded_at_initialize_and_revalidated() throws Exception {
+        Path folder = Files.createTempDirectory("antlr4ls");
+        Path cacheDirectory = Files.createTempDirectory("antlr4ls-cache");
+        Files.writeString(folder.resolve("A.g4"), "grammar A;\nstart: B;\nB: 'b';\n");
+        Files.writeString(folder.resolve("Other.g4"), "grammar Other;\nother: X;\nX: 'x';\n");
+        var options = new JsonObject();
+        options.addProperty("indexCacheDirectory", cacheDirectory.toString());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "tmp")));
+        initializeParams.setInitializationOptions(options);
+
+        Antlr4Server first = new Antlr4Server();
+        first.connect(new TestClient());
+        assertThat(first.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(first.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+        // an unsaved buffer is indexed, the cache gets what's on disk
+        String otherUri = folder.resolve("Other.g4").toUri().toString();
+        first.getTextDocumentService().didOpen(new DidOpenTextDocumentParams(
+            new TextDocumentItem(otherUri, "antlr", 1, "grammar Other;\nother: Y;\nY: 'y';\n")));
+        first.documents().parse(otherUri);
+        assertThat(first.workspace().get(folder.resolve("Other.g4")).stamp()).isNull();
+        assertThat(first.shutdown()).succeedsWithin(1, TimeUnit.SECONDS);
+
+        Path file = folder.resolve("A.g4");
+        Files.writeString(file, "grammar A;\nstart: C;\nC: 'c';\nD: 'd';\n");
+
+        Antlr4Server second = new Antlr4Server();
+        second.connect(new TestClient());
+        assertThat(second.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(second.workspace().get(folder.resolve("Other.g4")).symbols().lookup(SymbolTable.Kind.TOKEN, "X"))
+            .isNotNull();
+        assertThat(second.workspace().get(folder.resolve("Other.g4")).symbols().lookup(SymbolTable.Kind.TOKEN, "Y"))
+            .isNull();
+        assertThat(second.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+        assertThat(second.workspace().get(file).symbols().lookup(SymbolTable.Kind.TOKEN, "B")).isNull();
+        assertThat(second.workspace().get(file).symbols().lookup(SymbolTable.Kind.TOKEN, "C")).isNotNull();
+        second.shutdown();
+    }
+
+    @Test
+    public void test_profile_reports_expensive_decisions() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        assertThat(server.initialize(new InitializeParams())).succeedsWithin(1, TimeUnit.SECONDS);
+        String uri = "file:///tmp/does-not-exist/Expr.g4";
+        String text = """
+            grammar Expr;
+
+            start
+                : expr EOF
+                ;
+
+            expr
+                : expr ('*' | '/') expr
+                | expr ('+' | '-') expr
+                | INT
+                | '(' expr ')'
+                ;
+
+            INT: [0-9]+;
+            WS: [ \\t\\r\\n]+ -> skip;
+            """;
+        server.getTextDocumentService().didOpen(new DidOpenTextDocumentParams(
+            new TextDocumentItem(uri, "antlr", 1, text)));
+        client.awaitDiagnostics(1);
+
+        var result = server.profile(new ProfileParams(uri, "1 + 2 * (3 - 4) / 5", null, null, null));
+        assertThat(result).succeedsWithin(5, TimeUnit.SECONDS)
+            .satisfies(profile -> {
+                assertThat(profile.startRule()).isEqualTo("start");
+                assertThat(profile.tokens()).isEqualTo(12);
+                assertThat(profile.timedOut()).isFalse();
+                assertThat(profile.decisions()).isNotEmpty()
+                    .allSatisfy(decision -> assertThat(decision.rule()).isEqualTo("expr"));
+                // expr is left recursive, its decisions are reported on the rule name
+                assertThat(profile.decisions().get(0).range())
+                    .isEqualTo(new Range(new Position(6, 0), new Position(6, 4)));
+            });
+        var published = client.diagnosticsParams.get(client.diagnosticsParams.size() - 1);
+        assertThat(published.getDiagnostics())
+            .isNotEmpty()
+            .allSatisfy(diagnostic -> assertThat(diagnostic.getSeverity()).isEqualTo(DiagnosticSeverity.Information));
+
+        var unknownRule = server.profile(new ProfileParams(uri, "1", null, "missing", null));
+        assertThat(unknownRule).failsWithin(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void test_profile_split_grammar_with_lexer_from_token_vocab() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        server.connect(new TestClient());
+
+        Path folder = Path.of(Antlr4ServerTest.class.getClassLoader().getResource("split").toURI());
+        var initializeParams = new InitializeParams();
+        initializeParams.setWorkspaceFolders(List.of(new WorkspaceFolder(folder.toUri().toString(), "split")));
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        assertThat(server.workspaceIndexed()).succeedsWithin(5, TimeUnit.SECONDS);
+
+        String parserUri = folder.resolve("CalcParser.g4").toUri().toString();
+        var result = server.profile(new ProfileParams(parserUri, "1 + 2 - 3", null, null, null));
+        assertThat(result).succeedsWithin(5, TimeUnit.SECONDS)
+            .satisfies(profile -> {
+                assertThat(profile.tokens()).isEqualTo(6);
+                assertThat(profile.decisions()).isNotEmpty();
+                assertThat(profile.decisions()).allSatisfy(decision -> assertThat(decision.errors()).isZero());
+            });
+    }
+
+    @Test
+    public void test_stats_and_jfr_events_of_requests_and_lint() throws Exception {
+        Antlr4Server server = new Antlr4Server();
+        TestClient client = new TestClient();
+        server.connect(client);
+
+        var options = new JsonObject();
+        options.addProperty("telemetryIntervalSeconds", 1);
+        var initializeParams = new InitializeParams();
+        initializeParams.setInitializationOptions(options);
+        assertThat(server.initialize(initializeParams)).succeedsWithin(1, TimeUnit.SECONDS);
+        server.initialized(new InitializedParams());
+
+        Path recorded = Files.createTempFile("antlr4ls", ".jfr");
+        long deadline;
+        try (var recording = new Recording()) {
+            recording.enable("antlr4ls.Request");
+            recording.enable("antlr4ls.Lint");
+            recording.start();
+
+            TextDocumentService textDocumentService = server.getTextDocumentService();
+            String uri = Antlr4ServerTest.class.getClassLoader().getResource("Interpreter.g4").toString();
+            var textDocument = new TextDocumentIdentifier(uri);
+            textDocumentService.didSave(new DidSaveTextDocumentParams(textDocument));
+            client.awaitDiagnostics(1);
+            var hover = textDocumentService.hover(new HoverParams(textDocument, new Position(6, 3)));
+            assertThat(hover).succeedsWithin(1, TimeUnit.SECONDS);
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!server.stats().get().latencies().containsKey("lint/semantic") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            recording.stop();
+            recording.dump(recorded);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recorded);
+        Files.delete(recorded);
+        assertThat(events)
+            .filteredOn(event -> event.getEventType().getName().equals("antlr4ls.Request"))
+            .extracting(event -> event.getString("method"))
+            .contains("textDocument/hover");
+        assertThat(events)
+            .filteredOn(event -> event.getEventType().getName().equals("antlr4ls.Lint"))
+            .extracting(event -> event.getString("phase"))
+            .contains("syntax", "semantic");
+
+        ServerStats stats = server.stats().get(1, TimeUnit.SECONDS);
+        assertThat(stats.latencies()).containsKeys("textDocument/hover", "queue/requests", "findNode", "lint/syntax");
+        assertThat(stats.latencies().get("textDocument/hover").count()).isEqualTo(1);
+        assertThat(stats.documents().parseMisses()).isEqualTo(1);
+        assertThat(stats.parseHitRate()).isPositive();
+
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.telemetry.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(client.telemetry).first().isInstanceOf(ServerStats.class);
+        server.shutdown();
+    }
 }
@@ -0,0 +1,74 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BatchLintTest {
+
+    @TempDir
+    Path folder;
+
+    private void write(String path, String text) throws Exception {
+        Path file = folder.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+    }
+
+    @Test
+    public void test_lints_parser_grammars_with_the_vocabulary_of_their_lexer() throws Exception {
+        write("ExprLexer.g4", "lexer grammar ExprLexer;\nINT: [0-9]+;\nPLUS: '+';\n");
+        write("ExprParser.g4", "parser grammar ExprParser;\noptions { tokenVocab=ExprLexer; }\nexpr: INT (PLUS INT)*;\n");
+        write("other/Bad.g4", "grammar Bad;\nstart: missing;\n");
+        write("other/Imported.g4", "grammar Imported;\nimport Common;\nstart: atom;\n");
+        write("other/Common.g4", "grammar Common;\natom: ID;\nID: [a-z]+;\n");
+
+        List<BatchLint.Result> results = new BatchLint(2).lint(List.of(folder));
+
+        assertThat(results).extracting(result -> folder.relativize(result.path()).toString().replace('\\', '/'))
+            .containsExactly("ExprLexer.g4", "ExprParser.g4", "other/Bad.g4", "other/Common.g4", "other/Imported.g4");
+        assertThat(results.get(1).diagnostics()).isEmpty();
+        assertThat(results.get(2).diagnostics()).singleElement()
+            .satisfies(diagnostic -> {
+                assertThat(diagnostic.getSeverity()).isEqualTo(DiagnosticSeverity.Error);
+                assertThat(diagnostic.getMessage()).contains("missing");
+            });
+        assertThat(results.get(4).diagnostics()).isEmpty();
+    }
+
+    @Test
+    public void test_prints_sarif_and_exits_with_the_outcome() throws Exception {
+        write("Good.g4", "grammar Good;\nstart: 'x';\n");
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+
+        int exit = BatchLint.main(
+            List.of("--format", "sarif", folder.toString()),
+            new PrintStream(out, true, StandardCharsets.UTF_8),
+            new PrintStream(err, true, StandardCharsets.UTF_8));
+
+        assertThat(exit).isZero();
+        JsonObject log = JsonParser.parseString(out.toString(StandardCharsets.UTF_8)).getAsJsonObject();
+        assertThat(log.get("version").getAsString()).isEqualTo("2.1.0");
+        assertThat(log.getAsJsonArray("runs").get(0).getAsJsonObject().getAsJsonArray("results")).isEmpty();
+        assertThat(err.toString(StandardCharsets.UTF_8)).contains("linted 1 grammars").contains("Good.g4");
+
+        write("Bad.g4", "grammar Bad;\nstart: missing;\n");
+        exit = BatchLint.main(List.of(folder.toString()), new PrintStream(out), new PrintStream(err));
+        assertThat(exit).isEqualTo(1);
+        assertThat(BatchLint.main(List.of("--format", "xml", folder.toString()), new PrintStream(out), new PrintStream(err)))
+            .isEqualTo(2);
+    }
+}
@@ -0,0 +1,99 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.eclipse.lsp4j.CompletionItem;
+import org.eclipse.lsp4j.CompletionList;
+import org.junit.jupiter.api.Test;
+
+import antlr4ls.Completions.Scope;
+
+public class CompletionsTest {
+
+    private static final String GRAMMAR = """
+        grammar Calc;
+
+        options { caseInsensitive = false; }
+        channels { COMMENTS }
+
+        start
+            : expr EOF
+            ;
+
+        expr
+            : expr (PLUS | MINUS) expr
+            | INT
+            ;
+
+        PLUS: '+';
+        MINUS: '-';
+        INT: [0-9]+;
+        COMMENT: '//' ~[\\n]* -> channel(COMMENTS);
+
+        mode STRING;
+        END: '"' -> popMode;
+        """;
+
+    private static SymbolTable symbols(String text, SymbolTable previous) {
+        return ParsedGrammar.parse("Calc.g4", Rope.of(text), previous).symbols();
+    }
+
+    private static Completions.Context context(String text, String before) {
+        return Completions.context(Rope.of(text), text.indexOf(before) + before.length());
+    }
+
+    private static List<String> labels(String text, String before) {
+        SymbolTable symbols = symbols(text, null);
+        CompletionList list = Completions.complete(
+            context(text, before), List.of(new Completions.Source(symbols.prefixIndex(), null)));
+        return list.getItems().stream().map(CompletionItem::getLabel).toList();
+    }
+
+    @Test
+    public void test_prefix_index_finds_names_ignoring_case() throws Exception {
+        PrefixIndex index = symbols(GRAMMAR, null).prefixIndex();
+
+        assertThat(index.withPrefix("")).containsExactly(
+            "COMMENT", "COMMENTS", "END", "expr", "INT", "MINUS", "PLUS", "start", "STRING");
+        assertThat(index.withPrefix("e")).containsExactly("END", "expr");
+        assertThat(index.withPrefix("comment")).containsExactly("COMMENT", "COMMENTS");
+        assertThat(index.withPrefix("x")).isEmpty();
+    }
+
+    @Test
+    public void test_prefix_index_is_updated_from_previous_version() throws Exception {
+        SymbolTable previous = symbols(GRAMMAR, null);
+        PrefixIndex before = previous.prefixIndex();
+
+        String edited = GRAMMAR.replace("PLUS: '+';", "PLUS: '+';\nEXP: '^';").replace("MINUS: '-';", "");
+        PrefixIndex after = symbols(edited, previous).prefixIndex();
+
+        assertThat(after.withPrefix("")).containsExactly(
+            "COMMENT", "COMMENTS", "END", "EXP", "expr", "INT", "PLUS", "start", "STRING");
+        assertThat(before.withPrefix("")).contains("MINUS");
+    }
+
+    @Test
+    public void test_context_from_text_before_cursor() throws Exception {
+        assertThat(context(GRAMMAR, "    : ex")).isEqualTo(new Completions.Context(Scope.PARSER_RULE, "ex"));
+        assertThat(context(GRAMMAR, "(PLUS | MI")).isEqualTo(new Completions.Context(Scope.PARSER_RULE, "MI"));
+        assertThat(context(GRAMMAR, "~[\\n]* ")).isEqualTo(new Completions.Context(Scope.LEXER_RULE, ""));
+        assertThat(context(GRAMMAR, "-> chan")).isEqualTo(new Completions.Context(Scope.LEXER_COMMAND, "chan"));
+        assertThat(context(GRAMMAR, "channel(COMM")).isEqualTo(new Completions.Context(Scope.CHANNEL, "COMM"));
+        assertThat(context(GRAMMAR, "options { case")).isEqualTo(new Completions.Context(Scope.OPTIONS, "case"));
+        assertThat(context(GRAMMAR, "mo")).isEqualTo(new Completions.Context(Scope.TOP_LEVEL, "mo"));
+        assertThat(context(GRAMMAR, "gram")).isEqualTo(new Completions.Context(Scope.TOP_LEVEL, "gram"));
+    }
+
+    @Test
+    public void test_completes_names_for_scope() throws Exception {
+        // rules and tokens in parser rules, exact case first
+        assertThat(labels(GRAMMAR, "    : e")).containsExactly("expr", "END", "EOF");
+        // only tokens in lexer rules
+        assertThat(labels(GRAMMAR, "~[\\n]* ")).containsExactly("END", "INT", "PLUS", "MINUS", "COMMENT");
+        assertThat(labels(GRAMMAR, "channel(")).containsExactly("COMMENTS", "HIDDEN", "DEFAULT_TOKEN_CHANNEL");
+        assertThat(labels(GRAMMAR, "-> p")).containsExactly("popMode", "pushMode");
+    }
+}
@@ -0,0 +1,53 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DocumentsTest {
+
+    @TempDir
+    Path folder;
+
+    private String write(String name) throws Exception {
+        Path file = folder.resolve(name + ".g4");
+        Files.writeString(file, "grammar " + name + ";\nstart: 'x';\n");
+        return file.toUri().toString();
+    }
+
+    @Test
+    public void test_evicts_least_recently_used_grammars_over_budget() throws Exception {
+        var documents = new Documents();
+        String a = write("A");
+        String b = write("B");
+        String c = write("C");
+        String open = write("Open");
+
+        documents.open(open, 1, Files.readString(folder.resolve("Open.g4")));
+        documents.parse(open);
+        documents.parse(a);
+        long perDocument = documents.stats().cachedBytes();
+        assertThat(perDocument).isPositive();
+        documents.setBudget(2 * perDocument);
+        documents.parse(b);
+        // touch A so B is the least recently used
+        documents.get(a);
+        documents.parse(c);
+
+        Documents.Stats stats = documents.stats();
+        assertThat(stats.evictions()).isEqualTo(1);
+        assertThat(stats.cachedDocuments()).isEqualTo(2);
+        assertThat(stats.cachedBytes()).isLessThanOrEqualTo(2 * perDocument);
+        assertThat(documents.get(a).parsed).isNotNull();
+        assertThat(documents.get(b).parsed).isNull();
+        // open documents are pinned and not counted
+        assertThat(documents.getIfOpen(open).parsed).isNotNull();
+
+        documents.process(documents.get(c));
+        assertThat(documents.stats().evictions()).isEqualTo(2);
+    }
+}
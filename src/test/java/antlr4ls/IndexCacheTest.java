@@ -0,0 +1,37 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class IndexCacheTest {
+
+    private static Path cacheWith(int... ints) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * ints.length);
+        for (int value : ints) {
+            buffer.putInt(value);
+        }
+        Path file = Files.createTempFile("antlr4ls-index", ".bin");
+        Files.write(file, buffer.array());
+        return file;
+    }
+
+    @Test
+    public void test_load_rejects_corrupt_lengths_before_allocating() throws Exception {
+        int magic = 0x41344C53;
+        int version = 1;
+
+        assertThatThrownBy(() -> new IndexCache(cacheWith(magic, version, -1)).load())
+            .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> new IndexCache(cacheWith(magic, version, Integer.MAX_VALUE)).load())
+            .isInstanceOf(IOException.class);
+        // one entry whose path claims to be 2 GB long
+        assertThatThrownBy(() -> new IndexCache(cacheWith(magic, version, 1, Integer.MAX_VALUE)).load())
+            .isInstanceOf(IOException.class);
+    }
+}
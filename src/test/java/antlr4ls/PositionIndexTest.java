@@ -0,0 +1,42 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.antlr.runtime.tree.Tree;
+import org.antlr.v4.tool.ast.RuleAST;
+import org.junit.jupiter.api.Test;
+
+public class PositionIndexTest {
+
+    private static ParsedGrammar parse(String resource) throws Exception {
+        Path path = Path.of(PositionIndexTest.class.getClassLoader().getResource(resource).toURI());
+        return ParsedGrammar.parse(path.toString(), null);
+    }
+
+    @Test
+    public void test_finds_innermost_node_on_overlapping_elements() throws Exception {
+        PositionIndex index = parse("Interpreter.g4").positions();
+
+        assertThat(index.find(6, 3)).isInstanceOf(RuleAST.class);
+        assertThat(index.find(8, 7)).extracting(Tree::getText).isEqualTo("expression");
+        // (PLUS | MINUS) – the BLOCK node starts at '(' and overlaps PLUS
+        assertThat(index.find(8, 16)).extracting(Tree::getText).isEqualTo("BLOCK");
+        assertThat(index.find(8, 17)).extracting(Tree::getText).isEqualTo("PLUS");
+        assertThat(index.find(8, 21)).extracting(Tree::getText).isEqualTo("PLUS");
+        assertThat(index.find(8, 24)).extracting(Tree::getText).isEqualTo("MINUS");
+        assertThat(index.find(12, 2)).extracting(Tree::getText).isEqualTo("MINUS");
+    }
+
+    @Test
+    public void test_returns_null_outside_of_nodes() throws Exception {
+        PositionIndex index = parse("Interpreter.g4").positions();
+
+        assertThat(index.find(0, 0)).isNull();
+        assertThat(index.find(1, 0)).isNull();
+        assertThat(index.find(8, 22)).isNull();
+        assertThat(index.find(8, 45)).isNull();
+        assertThat(index.find(100, 0)).isNull();
+    }
+}
@@ -0,0 +1,62 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class RopeTest {
+
+    @Test
+    public void test_random_edits_match_string_builder() throws Exception {
+        Random random = new Random(42);
+        StringBuilder expected = new StringBuilder();
+        Rope rope = Rope.of("");
+        for (int i = 0; i < 5000; i++) {
+            int start = expected.length() == 0 ? 0 : random.nextInt(expected.length() + 1);
+            int end = start + (expected.length() == start ? 0 : random.nextInt(Math.min(50, expected.length() - start)));
+            String text = randomText(random, random.nextInt(i % 100 == 0 ? 3000 : 20));
+            expected.replace(start, end, text);
+            rope = rope.replace(start, end, text);
+        }
+        assertThat(rope.toString()).isEqualTo(expected.toString());
+        assertThat(rope.length()).isEqualTo(expected.length());
+        assertThat(rope.substring(10, 200)).isEqualTo(expected.substring(10, 200));
+        assertThat(rope.charAt(123)).isEqualTo(expected.charAt(123));
+    }
+
+    @Test
+    public void test_line_and_offset_conversion() throws Exception {
+        Rope rope = Rope.of("grammar A;\n\nstart\n    : B\n    ;\n");
+        assertThat(rope.lineCount()).isEqualTo(6);
+        assertThat(rope.lineStart(0)).isEqualTo(0);
+        assertThat(rope.lineStart(2)).isEqualTo(12);
+        assertThat(rope.offsetAt(3, 6)).isEqualTo(24);
+        assertThat(rope.offsetAt(0, 100)).isEqualTo(10);
+        assertThat(rope.offsetAt(10, 0)).isEqualTo(rope.length());
+        assertThat(rope.lineOf(24)).isEqualTo(3);
+        assertThat(rope.lineOf(11)).isEqualTo(1);
+    }
+
+    @Test
+    public void test_line_lookup_on_large_text() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            sb.append("rule").append(i).append(" : TOKEN;\n");
+        }
+        String text = sb.toString();
+        Rope rope = Rope.of(text).insert(0, "grammar Big;\n");
+        int offset = rope.offsetAt(5001, 4);
+        assertThat(rope.substring(offset, offset + 4)).isEqualTo("5000");
+        assertThat(rope.lineOf(offset)).isEqualTo(5001);
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(random.nextInt(10) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.junit.jupiter.api.Test;
+
+public class SemanticTokensEncoderTest {
+
+    private static final String GRAMMAR = """
+        grammar Calc;
+
+        options { caseInsensitive = false; }
+        channels { COMMENTS }
+
+        start
+            : e=expr EOF # Start
+            ;
+
+        expr: INT {
+            System.out.println();
+        };
+
+        INT: [0-9]+;
+        COMMENT: '//' ~[\\n]* -> channel(COMMENTS);
+        """;
+
+    record Token(int line, int column, int length, String type, boolean declaration) {
+    }
+
+    private static List<Token> decode(int[] data) {
+        ArrayList<Token> tokens = new ArrayList<>();
+        int line = 0;
+        int column = 0;
+        for (int i = 0; i < data.length; i += 5) {
+            line += data[i];
+            column = data[i] == 0 ? column + data[i + 1] : data[i + 1];
+            tokens.add(new Token(line, column, data[i + 2], SemanticTokensEncoder.TYPES.get(data[i + 3]), data[i + 4] == 1));
+        }
+        return tokens;
+    }
+
+    private static int[] encode(String text) {
+        return SemanticTokensEncoder.encode(ParsedGrammar.parse("Calc.g4", Rope.of(text)));
+    }
+
+    @Test
+    public void test_classifies_tokens_by_their_ast_node() throws Exception {
+        List<Token> tokens = decode(encode(GRAMMAR));
+
+        assertThat(tokens).startsWith(
+            new Token(0, 0, 7, "keyword", false),
+            new Token(0, 8, 4, "namespace", true),
+            new Token(2, 0, 7, "keyword", false),
+            new Token(2, 10, 15, "property", false),
+            new Token(3, 0, 8, "keyword", false),
+            new Token(3, 11, 8, "enumMember", true),
+            new Token(5, 0, 5, "function", true),
+            new Token(6, 6, 1, "variable", true),
+            new Token(6, 8, 4, "function", false),
+            new Token(6, 13, 3, "type", false),
+            new Token(6, 19, 5, "label", true),
+            new Token(9, 0, 4, "function", true),
+            new Token(9, 6, 3, "type", false),
+            // actions are split into one token per line
+            new Token(9, 10, 1, "macro", false),
+            new Token(10, 0, 25, "macro", false),
+            new Token(11, 0, 1, "macro", false)
+        );
+        assertThat(tokens).endsWith(
+            new Token(14, 9, 4, "string", false),
+            new Token(14, 15, 4, "string", false),
+            new Token(14, 24, 7, "keyword", false),
+            new Token(14, 32, 8, "enumMember", false)
+        );
+    }
+
+    @Test
+    public void test_range_re_encodes_tokens_within_range() throws Exception {
+        int[] data = encode(GRAMMAR);
+
+        List<Token> tokens = decode(SemanticTokensEncoder.range(data, 6, 8, 6, 17));
+
+        assertThat(tokens).containsExactly(
+            new Token(6, 8, 4, "function", false),
+            new Token(6, 13, 3, "type", false)
+        );
+    }
+
+    @Test
+    public void test_diff_covers_only_the_changed_span() throws Exception {
+        int[] previous = encode(GRAMMAR);
+        int[] current = encode(GRAMMAR.replace("INT {", "INT INT {"));
+
+        SemanticTokensEdit edit = SemanticTokensEncoder.diff(previous, current);
+
+        assertThat(edit.getStart()).isGreaterThan(0);
+        assertThat(edit.getDeleteCount()).isLessThan(5);
+        assertThat(edit.getData()).hasSize(edit.getDeleteCount() + 5);
+        int[] applied = new int[current.length];
+        System.arraycopy(previous, 0, applied, 0, edit.getStart());
+        for (int i = 0; i < edit.getData().size(); i++) {
+            applied[edit.getStart() + i] = edit.getData().get(i);
+        }
+        int tail = previous.length - edit.getStart() - edit.getDeleteCount();
+        System.arraycopy(previous, previous.length - tail, applied, applied.length - tail, tail);
+        assertThat(applied).isEqualTo(current);
+
+        assertThat(SemanticTokensEncoder.diff(current, current)).isNull();
+    }
+}
@@ -0,0 +1,107 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.DocumentSymbolParams;
+import org.eclipse.lsp4j.HoverParams;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.InitializedParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SessionReplayTest {
+
+    @TempDir
+    Path folder;
+
+    private int ids;
+
+    private RequestMessage request(String method, Object params) {
+        var message = new RequestMessage();
+        message.setJsonrpc("2.0");
+        message.setId(++ids);
+        message.setMethod(method);
+        message.setParams(params);
+        return message;
+    }
+
+    private static NotificationMessage notification(String method, Object params) {
+        var message = new NotificationMessage();
+        message.setJsonrpc("2.0");
+        message.setMethod(method);
+        message.setParams(params);
+        return message;
+    }
+
+    @Test
+    public void test_replays_a_recorded_session() throws Exception {
+        String uri = folder.resolve("Expr.g4").toUri().toString();
+        String text = "grammar Expr;\nexpr: INT | expr '+' expr;\nINT: [0-9]+;\n";
+        var document = new TextDocumentIdentifier(uri);
+        List<Message> messages = new ArrayList<>();
+        messages.add(request("initialize", new InitializeParams()));
+        messages.add(notification("initialized", new InitializedParams()));
+        messages.add(notification("textDocument/didOpen",
+            new DidOpenTextDocumentParams(new TextDocumentItem(uri, "antlr", 1, text))));
+        for (int version = 2; version < 12; version++) {
+            var change = new TextDocumentContentChangeEvent(text + "// " + version + "\n");
+            messages.add(notification("textDocument/didChange", new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(uri, version), List.of(change))));
+            messages.add(request("textDocument/hover", new HoverParams(document, new Position(1, 1))));
+        }
+        messages.add(request("textDocument/documentSymbol", new DocumentSymbolParams(document)));
+        // the client's answer to a request of the server is not replayed
+        messages.add(new ResponseMessage());
+        messages.add(request("shutdown", null));
+        messages.add(notification("exit", null));
+
+        Path session = folder.resolve("session.jsonl");
+        List<Message> consumed = new ArrayList<>();
+        try (var recorder = new SessionRecorder(session)) {
+            var consumer = recorder.wrap(consumed::add);
+            messages.forEach(consumer::consume);
+        }
+        assertThat(consumed).isEqualTo(messages);
+        List<SessionReplay.Recorded> recorded = SessionReplay.load(session);
+        assertThat(recorded).hasSize(messages.size() - 1);
+
+        List<SessionReplay.MethodStats> stats = new SessionReplay(0, 4).replay(recorded);
+
+        assertThat(stats).extracting(SessionReplay.MethodStats::method)
+            .containsExactly("initialize", "shutdown", "textDocument/documentSymbol", "textDocument/hover");
+        SessionReplay.MethodStats hover = stats.get(3);
+        assertThat(hover.count()).isEqualTo(10);
+        assertThat(hover.p50Millis()).isPositive().isLessThanOrEqualTo(hover.p99Millis());
+        assertThat(hover.meanAllocatedBytes()).isPositive();
+
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        int exit = SessionReplay.main(
+            List.of("--speed", "0", "--max-p99", "0", session.toString()),
+            new PrintStream(out, true, StandardCharsets.UTF_8),
+            new PrintStream(err, true, StandardCharsets.UTF_8));
+        assertThat(exit).isEqualTo(1);
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains("textDocument/hover");
+        assertThat(err.toString(StandardCharsets.UTF_8)).contains("p99");
+        assertThat(Files.readAllLines(session)).hasSize(messages.size());
+    }
+}
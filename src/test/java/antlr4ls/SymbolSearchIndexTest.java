@@ -0,0 +1,69 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SymbolSearchIndexTest {
+
+    private static final String GRAMMAR = """
+        grammar Expr;
+
+        channels { COMMENTS }
+
+        expression: expression (PLUS | MINUS) expression | INT;
+        exprList: expression (',' expression)*;
+        primaryExpression: INT;
+
+        PLUS: '+';
+        MINUS: '-';
+        INT: [0-9]+;
+        EXPONENT: 'e' [0-9]+;
+        """;
+
+    private static SymbolTable symbols(String text) {
+        return ParsedGrammar.parse("Expr.g4", Rope.of(text)).symbols();
+    }
+
+    private static List<String> names(SymbolSearchIndex index, String query) {
+        return index.search(query, 10).stream().map(SymbolSearchIndex.Match::name).toList();
+    }
+
+    @Test
+    public void test_ranks_exact_prefix_substring_and_subsequence_matches() throws Exception {
+        var index = new SymbolSearchIndex();
+        index.update(Path.of("Expr.g4"), "Expr", symbols(GRAMMAR));
+
+        assertThat(names(index, "expression")).containsExactly("expression", "primaryExpression");
+        assertThat(names(index, "expr")).containsExactly("exprList", "expression", "primaryExpression");
+        assertThat(names(index, "exlst")).containsExactly("exprList");
+        assertThat(names(index, "pe")).containsExactly("primaryExpression", "EXPONENT", "expression");
+        assertThat(names(index, "nothing")).isEmpty();
+        assertThat(index.search("", 100)).hasSize(8);
+    }
+
+    @Test
+    public void test_update_replaces_only_the_changed_names() throws Exception {
+        var index = new SymbolSearchIndex();
+        Path expr = Path.of("Expr.g4");
+        Path other = Path.of("Other.g4");
+        index.update(expr, "Expr", symbols(GRAMMAR));
+        index.update(other, "Other", symbols("grammar Other;\nexpressionOther: 'x';\n"));
+
+        index.update(expr, "Expr", symbols(GRAMMAR.replace("exprList", "expressionList")));
+
+        assertThat(names(index, "expressionl")).containsExactly("expressionList");
+        assertThat(names(index, "exprlist")).containsExactly("expressionList");
+        assertThat(index.search("expressionOther", 10))
+            .extracting(SymbolSearchIndex.Match::path)
+            .containsExactly(other);
+        assertThat(index.size()).isEqualTo(9);
+
+        index.remove(expr);
+        assertThat(names(index, "expr")).containsExactly("expressionOther");
+        assertThat(index.size()).isEqualTo(1);
+    }
+}
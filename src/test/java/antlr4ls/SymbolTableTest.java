@@ -0,0 +1,100 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import antlr4ls.SymbolTable.Kind;
+import antlr4ls.SymbolTable.Symbol;
+
+public class SymbolTableTest {
+
+    private static final String GRAMMAR = """
+        grammar Calc;
+
+        tokens { EXTRA }
+        channels { COMMENTS }
+
+        start
+            : expr EOF
+            ;
+
+        expr
+            : expr (PLUS | MINUS) expr
+            | INT
+            ;
+
+        PLUS: '+';
+        MINUS: '-';
+        INT: [0-9]+;
+        COMMENT: '//' ~[\\n]* -> channel(COMMENTS);
+        """;
+
+    private static ParsedGrammar parse(String text, SymbolTable previous) {
+        return ParsedGrammar.parse("Calc.g4", Rope.of(text), previous);
+    }
+
+    @Test
+    public void test_collects_declarations_and_uses() throws Exception {
+        SymbolTable symbols = parse(GRAMMAR, null).symbols();
+
+        Symbol expr = symbols.lookup(Kind.RULE, "expr");
+        assertThat(expr.declarationCount()).isEqualTo(1);
+        assertThat(expr.declarationLine(0)).isEqualTo(9);
+        assertThat(expr.declarationColumn(0)).isEqualTo(0);
+        assertThat(expr.useCount()).isEqualTo(3);
+        assertThat(expr.useLine(0)).isEqualTo(6);
+        assertThat(expr.useColumn(0)).isEqualTo(6);
+
+        Symbol plus = symbols.lookup(Kind.TOKEN, "PLUS");
+        assertThat(plus.declarationLine(0)).isEqualTo(14);
+        assertThat(plus.useCount()).isEqualTo(1);
+
+        assertThat(symbols.lookup(Kind.TOKEN, "EXTRA").declarationCount()).isEqualTo(1);
+        assertThat(symbols.lookup(Kind.CHANNEL, "COMMENTS").useCount()).isEqualTo(1);
+        assertThat(symbols.lookup(Kind.LITERAL, "'+'").useCount()).isEqualTo(1);
+        assertThat(symbols.lookup(Kind.RULE, "missing")).isNull();
+    }
+
+    @Test
+    public void test_reuses_unchanged_rules_after_edit() throws Exception {
+        SymbolTable first = parse(GRAMMAR, null).symbols();
+        assertThat(first.reusedRules()).isZero();
+
+        String edited = GRAMMAR.replace("    : expr EOF\n", "    : expr\n      EOF\n");
+        SymbolTable second = parse(edited, first).symbols();
+
+        // every rule except `start` is unchanged, but all of them after it moved down one line
+        assertThat(second.reusedRules()).isEqualTo(5);
+        Symbol expr = second.lookup(Kind.RULE, "expr");
+        assertThat(expr.declarationLine(0)).isEqualTo(10);
+        assertThat(expr.useCount()).isEqualTo(3);
+        assertThat(expr.useLine(1)).isEqualTo(11);
+        assertThat(second.lookup(Kind.TOKEN, "EOF").useLine(0)).isEqualTo(7);
+        assertThat(second.lookup(Kind.TOKEN, "INT").declarationLine(0)).isEqualTo(17);
+    }
+
+    @Test
+    public void test_write_and_read_round_trip() throws Exception {
+        SymbolTable symbols = parse(GRAMMAR, null).symbols();
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            symbols.write(out);
+        }
+        SymbolTable read = SymbolTable.read(ByteBuffer.wrap(bytes.toByteArray()));
+
+        for (Kind kind : Kind.values()) {
+            assertThat(read.symbols(kind)).extracting(Symbol::name)
+                .containsExactlyInAnyOrderElementsOf(symbols.symbols(kind).stream().map(Symbol::name).toList());
+        }
+        Symbol expr = read.lookup(Kind.RULE, "expr");
+        assertThat(expr.declarationLine(0)).isEqualTo(9);
+        assertThat(expr.useCount()).isEqualTo(3);
+        assertThat(expr.useLine(0)).isEqualTo(6);
+        assertThat(expr.useColumn(0)).isEqualTo(6);
+    }
+}
@@ -0,0 +1,44 @@
+package antlr4ls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class WorkspaceIndexTest {
+
+    private static WorkspaceIndex.Entry lexer(Path path) {
+        ParsedGrammar parsed = ParsedGrammar.parse(path.toString(), Rope.of("lexer grammar Common;\nINT: [0-9]+;\n"));
+        return WorkspaceIndex.entry(path, parsed, null);
+    }
+
+    @Test
+    public void test_resolve_prefers_the_closest_grammar_then_the_first_path() throws Exception {
+        Path root = Path.of("/workspace");
+        var index = new WorkspaceIndex();
+        index.put(lexer(root.resolve("b/deep/nested/Common.g4")));
+        index.put(lexer(root.resolve("z/Common.g4")));
+        index.put(lexer(root.resolve("c/Common.g4")));
+
+        Path parser = root.resolve("a/Parser.g4");
+        assertThat(index.resolve("Common", parser).path()).isEqualTo(root.resolve("c/Common.g4"));
+
+        index.put(lexer(root.resolve("a/Common.g4")));
+        assertThat(index.resolve("Common", parser).path()).isEqualTo(root.resolve("a/Common.g4"));
+        assertThat(index.resolve("Missing", parser)).isNull();
+    }
+
+    @Test
+    public void test_find_grammars_leaves_out_build_output() throws Exception {
+        Path folder = Files.createTempDirectory("antlr4ls");
+        Files.createDirectories(folder.resolve("src/target"));
+        Files.createDirectories(folder.resolve("target/classes"));
+        Files.writeString(folder.resolve("src/A.g4"), "grammar A;\nstart: 'a';\n");
+        Files.writeString(folder.resolve("src/target/B.g4"), "grammar B;\nstart: 'b';\n");
+        Files.writeString(folder.resolve("target/classes/A.g4"), "grammar A;\nstart: 'a';\n");
+
+        assertThat(WorkspaceIndex.findGrammars(folder)).containsExactly(folder.resolve("src/A.g4"));
+    }
+}
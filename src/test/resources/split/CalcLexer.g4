@@ -0,0 +1,6 @@
+lexer grammar CalcLexer;
+
+import CommonLexer;
+
+PLUS: '+';
+MINUS: '-';
@@ -0,0 +1,12 @@
+parser grammar CalcParser;
+
+options { tokenVocab = CalcLexer; }
+
+start
+    : expression EOF
+    ;
+
+expression
+    : INT
+    | expression (PLUS | MINUS) expression
+    ;
@@ -0,0 +1,4 @@
+lexer grammar CommonLexer;
+
+INT: [0-9]+;
+WS: [ \t\r\n]+ -> skip;